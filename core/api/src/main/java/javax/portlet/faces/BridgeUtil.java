@@ -21,9 +21,12 @@
  */
 package javax.portlet.faces;
 
+import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
 import javax.portlet.faces.Bridge.PortletPhase;
 
+import org.jboss.portletbridge.bridge.context.BridgeContext;
+
 /**
  * Utility class designed to make it easy for Faces subsystems including the bridge itself to determine whether this
  * request is running in a portlet container and/or which portlet request phase it is executing in.
@@ -52,7 +55,7 @@ public class BridgeUtil {
             return false;
         }
 
-        return null != getPortletRequestPhase();
+        return null != getPortletRequestPhase(ctx);
     }
 
     /**
@@ -60,8 +63,23 @@ public class BridgeUtil {
      * not being executed in a portlet container.
      */
     public static Bridge.PortletPhase getPortletRequestPhase() {
-        return (PortletPhase) FacesContext.getCurrentInstance().getExternalContext().getRequestMap()
-            .get(Bridge.PORTLET_LIFECYCLE_PHASE);
+        return getPortletRequestPhase(FacesContext.getCurrentInstance());
+    }
+
+    private static Bridge.PortletPhase getPortletRequestPhase(FacesContext ctx) {
+        ExternalContext externalContext = ctx.getExternalContext();
+
+        // The BridgeContext bound to the thread holds the phase of the portlet request it is handling, which saves a
+        // request attribute lookup through the portlet container. Only trust it for the request of this FacesContext.
+        BridgeContext bridgeContext = BridgeContext.getCurrentInstance();
+        if (null != bridgeContext) {
+            PortletPhase phase = bridgeContext.getPortletRequestPhase();
+            if (null != phase && bridgeContext.getPortletRequest() == externalContext.getRequest()) {
+                return phase;
+            }
+        }
+
+        return (PortletPhase) externalContext.getRequestMap().get(Bridge.PORTLET_LIFECYCLE_PHASE);
     }
 
 }
@@ -24,10 +24,10 @@ package org.jboss.portletbridge.bridge.factory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,68 +35,69 @@ import javax.portlet.faces.BridgeException;
 
 import org.jboss.portletbridge.bridge.logger.BridgeLogger;
 
+/**
+ * Registry of the {@link BridgeFactory} implementations of the bridge.
+ * <p>
+ * Definitions and instances are published as immutable snapshots, replaced as a whole under a lock whenever one is
+ * added. Looking up a factory that has already been created is a single volatile read, without any lock.
+ * </p>
+ */
 public final class BridgeFactoryFinder {
 
     private static final Logger logger = Logger.getLogger(BridgeFactoryFinder.class.getName(),
         BridgeLogger.LOGGING_BUNDLE);
-    private static Map<Class<?>, List<String>> factoryDefinitions = new HashMap<Class<?>, List<String>>(6);
-    private static Map<Class<?>, BridgeFactory<?>> factoryInstances = new HashMap<Class<?>, BridgeFactory<?>>(6);
-    private static ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private static volatile Map<Class<?>, List<String>> factoryDefinitions = Collections.emptyMap();
+    private static volatile Map<Class<?>, BridgeFactory<?>> factoryInstances = Collections.emptyMap();
+    // Guards replacement of the snapshots, and creation of factory instances
+    private static final Object lock = new Object();
 
     private BridgeFactoryFinder() {
         //Prevent instantiation
     }
 
     public static void addFactoryDefinition(Class<? extends BridgeFactory<?>> type, String factoryImplClassName) {
-        lock.writeLock().lock();
-        try {
+        synchronized (lock) {
             List<String> defs = factoryDefinitions.get(type);
-            if (defs == null) {
-                defs = (List<String>) new ArrayList<String>(4);
-                factoryDefinitions.put(type, defs);
+            if (defs != null && defs.contains(factoryImplClassName)) {
+                return;
             }
-            if (!defs.contains(factoryImplClassName)) {
-                defs.add(factoryImplClassName);
+            List<String> newDefs = new ArrayList<String>(defs != null ? defs.size() + 1 : 4);
+            if (defs != null) {
+                newDefs.addAll(defs);
             }
-        } finally {
-            lock.writeLock().unlock();
-        }
+            newDefs.add(factoryImplClassName);
 
+            Map<Class<?>, List<String>> definitions = new HashMap<Class<?>, List<String>>(factoryDefinitions);
+            definitions.put(type, Collections.unmodifiableList(newDefs));
+            factoryDefinitions = Collections.unmodifiableMap(definitions);
+        }
     }
 
+    /**
+     * @return the implementation class names defined for the factory type, in the order they were added, or null if
+     *         none. The list is not modifiable.
+     */
     public static List<String> getFactoryDefinition(Class<? extends BridgeFactory<?>> type) {
-        lock.readLock().lock();
-        try {
-            return factoryDefinitions.get(type);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return factoryDefinitions.get(type);
     }
 
     public static void addFactoryInstance(Class<? extends BridgeFactory<?>> type, BridgeFactory<?> factoryInstance) {
-        lock.writeLock().lock();
-        try {
-            factoryInstances.put(type, factoryInstance);
-        } finally {
-            lock.writeLock().unlock();
+        synchronized (lock) {
+            Map<Class<?>, BridgeFactory<?>> instances = new HashMap<Class<?>, BridgeFactory<?>>(factoryInstances);
+            instances.put(type, factoryInstance);
+            factoryInstances = Collections.unmodifiableMap(instances);
         }
     }
 
     public static BridgeFactory<?> getFactoryInstance(Class<? extends BridgeFactory<?>> type) {
-        lock.readLock().lock();
-        try {
-            BridgeFactory<?> instance = factoryInstances.get(type);
-            if (instance != null) {
-                return instance;
-            }
-        } finally {
-            lock.readLock().unlock();
+        BridgeFactory<?> instance = factoryInstances.get(type);
+        if (instance != null) {
+            return instance;
         }
 
-        lock.writeLock().lock();
-        // Check that instance wasn't created between readLock().unlock() and writeLock().lock()
-        try {
-            BridgeFactory<?> instance = factoryInstances.get(type);
+        synchronized (lock) {
+            // Check that instance wasn't created by another thread before the lock was acquired
+            instance = factoryInstances.get(type);
             if (instance != null) {
                 return instance;
             }
@@ -116,8 +117,6 @@ public final class BridgeFactoryFinder {
             // Now store instance in cache
             addFactoryInstance(type, instance);
             return instance;
-        } finally {
-            lock.writeLock().unlock();
         }
     }
 
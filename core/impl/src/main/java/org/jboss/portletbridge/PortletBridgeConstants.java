@@ -69,4 +69,71 @@ public interface PortletBridgeConstants {
      * Parameter to specify whether the generated namespace for a component should be shortened.
      */
     String COMPONENT_NAMESPACE_SHORTENED = "org.jboss.portletbridge.COMPONENT_NAMESPACE_SHORTENED";
+
+    /**
+     * Parameter to specify, in seconds, how long a Bridge Request Scope may remain unused before it is removed. By
+     * default a scope is only removed once the maximum number of managed scopes is exceeded.
+     */
+    String REQUEST_SCOPE_IDLE_TIMEOUT = "org.jboss.portletbridge.BRIDGE_SCOPE_IDLE_TIMEOUT";
+
+    /**
+     * Parameter to specify, in seconds, the maximum time a Bridge Request Scope is kept after it was created, however
+     * often it is used. By default there is no maximum.
+     */
+    String REQUEST_SCOPE_MAX_AGE = "org.jboss.portletbridge.BRIDGE_SCOPE_MAX_AGE";
+
+    /**
+     * Parameter to specify the maximum number of Bridge Request Scopes held across all sessions of the application. By
+     * default only the number of scopes per session is limited.
+     */
+    String REQUEST_SCOPE_GLOBAL_MAX = "org.jboss.portletbridge.BRIDGE_SCOPE_GLOBAL_MAX";
+
+    /**
+     * Parameter to specify the maximum estimated size, in bytes, of the Bridge Request Scopes held across all sessions
+     * of the application. By default there is no maximum.
+     */
+    String REQUEST_SCOPE_GLOBAL_MAX_BYTES = "org.jboss.portletbridge.BRIDGE_SCOPE_GLOBAL_MAX_BYTES";
+
+    /**
+     * Parameter to specify whether Bridge Request Scopes that are removed or evicted are cleared on a background
+     * thread, instead of the request thread. Default value is <code>false</code>.
+     */
+    String REQUEST_SCOPE_ASYNC_TEARDOWN = "org.jboss.portletbridge.BRIDGE_SCOPE_ASYNC_TEARDOWN";
+
+    /**
+     * Parameter to specify how many Bridge Request Scopes may wait to be cleared on the background thread, before they
+     * are cleared on the request thread instead. Only applicable if REQUEST_SCOPE_ASYNC_TEARDOWN is <code>true</code>.
+     */
+    String REQUEST_SCOPE_TEARDOWN_QUEUE_SIZE = "org.jboss.portletbridge.BRIDGE_SCOPE_TEARDOWN_QUEUE_SIZE";
+
+    /**
+     * Parameter to specify whether the content of a Bridge Request Scope is made visible to the Faces request through
+     * the request attribute map, instead of being copied into the portlet request when the scope is restored. Default
+     * value is <code>false</code>.
+     */
+    String REQUEST_SCOPE_LAZY_RESTORE = "org.jboss.portletbridge.BRIDGE_SCOPE_LAZY_RESTORE";
+
+    /**
+     * Parameter to specify whether a view retained in the Bridge Request Scope is held as its saved state, instead of
+     * as the component tree, and rebuilt when the scope is restored. Default value is <code>false</code>.
+     */
+    String REQUEST_SCOPE_VIEW_STATE_SAVED = "org.jboss.portletbridge.BRIDGE_SCOPE_VIEW_STATE_SAVED";
+
+    /**
+     * Parameter to specify whether the saved state of a view retained in the Bridge Request Scope is compressed. Only
+     * applicable if REQUEST_SCOPE_VIEW_STATE_SAVED is <code>true</code>. Default value is <code>false</code>.
+     */
+    String REQUEST_SCOPE_VIEW_STATE_COMPRESSED = "org.jboss.portletbridge.BRIDGE_SCOPE_VIEW_STATE_COMPRESSED";
+
+    /**
+     * Parameter to specify the class name of a KeyValueCache, shared by the nodes of a cluster, to hold Bridge Request
+     * Scopes in instead of the session. Not set by default.
+     */
+    String REQUEST_SCOPE_KEY_VALUE_CACHE = "org.jboss.portletbridge.BRIDGE_SCOPE_KEY_VALUE_CACHE";
+
+    /**
+     * Parameter to specify whether metrics of the Bridge Request Scopes of the application are collected, and exposed
+     * as a platform MBean. Default value is <code>false</code>.
+     */
+    String REQUEST_SCOPE_METRICS = "org.jboss.portletbridge.BRIDGE_SCOPE_METRICS";
 }
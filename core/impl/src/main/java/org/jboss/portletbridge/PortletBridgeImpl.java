@@ -22,14 +22,11 @@
 package org.jboss.portletbridge;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.faces.FactoryFinder;
-import javax.faces.application.ApplicationFactory;
 import javax.faces.application.ViewHandler;
 import javax.faces.context.FacesContext;
 import javax.faces.event.SystemEvent;
@@ -54,18 +51,19 @@ import javax.portlet.faces.BridgeUninitializedException;
 import javax.portlet.faces.BridgeWriteBehindResponse;
 
 import org.jboss.portletbridge.bridge.config.BridgeConfig;
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
 import org.jboss.portletbridge.bridge.controller.BridgeController;
 import org.jboss.portletbridge.bridge.event.BridgeDestroyRequestSystemEvent;
 import org.jboss.portletbridge.bridge.event.BridgeInitializeRequestSystemEvent;
 import org.jboss.portletbridge.bridge.factory.BridgeConfigFactory;
-import org.jboss.portletbridge.bridge.factory.BridgeContextFactory;
 import org.jboss.portletbridge.bridge.factory.BridgeControllerFactory;
 import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger;
 import org.jboss.portletbridge.config.FacesConfigProcessor;
 import org.jboss.portletbridge.config.WebXmlProcessor;
 import org.jboss.portletbridge.context.InitFacesContext;
+import org.jboss.portletbridge.util.HashedNameList;
 
 /**
  * @author <a href="http://community.jboss.org/people/kenfinni">Ken Finnigan</a>
@@ -236,6 +234,28 @@ public class PortletBridgeImpl implements Bridge {
             bridgeConfig.setComponentNamespaceShortened(Boolean.parseBoolean(componentNamespaceShortened) ? true : false);
         }
 
+        // Parameter to determine whether the Bridge Scope is read through the request map instead of copied on restore.
+        // Kept as a BridgeConfig attribute, so that the option does not require a change to the BridgeConfig API.
+        String bridgeScopeLazyRestore = getInitParameter(portletConfig, PortletBridgeConstants.REQUEST_SCOPE_LAZY_RESTORE);
+        if (bridgeScopeLazyRestore != null) {
+            bridgeConfig.getAttributes().put(PortletBridgeConstants.REQUEST_SCOPE_LAZY_RESTORE,
+                Boolean.valueOf(bridgeScopeLazyRestore));
+        }
+
+        // Parameters to determine whether a view retained in the Bridge Scope is held as, optionally compressed, state.
+        // Kept as BridgeConfig attributes, like the lazy restore option.
+        String viewStateSaved = getInitParameter(portletConfig, PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_SAVED);
+        if (viewStateSaved != null) {
+            bridgeConfig.getAttributes().put(PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_SAVED,
+                Boolean.valueOf(viewStateSaved));
+        }
+        String viewStateCompressed = getInitParameter(portletConfig,
+            PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_COMPRESSED);
+        if (viewStateCompressed != null) {
+            bridgeConfig.getAttributes().put(PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_COMPRESSED,
+                Boolean.valueOf(viewStateCompressed));
+        }
+
         // Determine whether we're running with JSF 2.2 Runtime or not
         // Use FlashFactory presence to determine it
         try {
@@ -345,6 +365,7 @@ public class PortletBridgeImpl implements Bridge {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Destroy Portlet Bridge for " + this.bridgeConfig.getPortletConfig().getPortletName());
             }
+            BridgeRuntime.release(this.bridgeConfig);
             this.bridgeConfig = null;
             this.bridgeController = null;
             this.initialized = false;
@@ -368,13 +389,13 @@ public class PortletBridgeImpl implements Bridge {
     }
 
     protected BridgeContext getBridgeContext(PortletRequest request, PortletResponse response, PortletPhase phase) {
-        BridgeContext bridgeContext = ((BridgeContextFactory) BridgeFactoryFinder
-                .getFactoryInstance(BridgeContextFactory.class)).getBridgeContext(bridgeConfig);
+        BridgeContext bridgeContext = BridgeRuntime.getInstance(bridgeConfig).getBridgeContextFactory().getBridgeContext(
+                bridgeConfig);
 
         bridgeContext.setPortletRequest(request);
         bridgeContext.setPortletRequestPhase(phase);
         bridgeContext.setPortletResponse(response);
-        bridgeContext.setPreFacesRequestAttrNames(Collections.list(request.getAttributeNames()));
+        bridgeContext.setPreFacesRequestAttrNames(HashedNameList.of(request.getAttributeNames()));
 
         fireFacesSystemEvent(bridgeContext, BridgeInitializeRequestSystemEvent.class);
 
@@ -401,9 +422,8 @@ public class PortletBridgeImpl implements Bridge {
         boolean createdInitContext = false;
 
         if (null == facesContext) {
-            ApplicationFactory factory = (ApplicationFactory) FactoryFinder.getFactory(FactoryFinder.APPLICATION_FACTORY);
-
-            facesContext = new InitFacesContext(factory.getApplication(), bridgeConfig.getPortletConfig().getPortletContext());
+            facesContext = new InitFacesContext(BridgeRuntime.getInstance(bridgeConfig).getApplication(), bridgeConfig
+                    .getPortletConfig().getPortletContext());
             createdInitContext = true;
         }
 
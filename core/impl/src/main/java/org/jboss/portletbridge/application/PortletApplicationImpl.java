@@ -34,6 +34,9 @@ import javax.portlet.faces.component.PortletNamingContainerUIViewRoot;
 
 public class PortletApplicationImpl extends ApplicationWrapper {
 
+    private static final boolean VIEW_ROOT_IS_NAMING_CONTAINER = null != UIViewRoot.class
+        .getAnnotation(PortletNamingContainer.class);
+
     private Application wrappedApplication;
 
     public PortletApplicationImpl(Application app) {
@@ -52,8 +55,8 @@ public class PortletApplicationImpl extends ApplicationWrapper {
     @Override
     public javax.faces.component.UIComponent createComponent(String componentType) throws FacesException {
         UIComponent component = wrappedApplication.createComponent(componentType);
-        if (BridgeUtil.isPortletRequest() && component instanceof UIViewRoot
-            && UIViewRoot.class.getAnnotation(PortletNamingContainer.class) == null) {
+        // Check the component first, as most created are not a UIViewRoot
+        if (component instanceof UIViewRoot && !VIEW_ROOT_IS_NAMING_CONTAINER && BridgeUtil.isPortletRequest()) {
             // replace with our own UIViewRoot
             UIViewRoot root = (UIViewRoot) component;
             UIViewRoot portletRoot = new PortletNamingContainerUIViewRoot();
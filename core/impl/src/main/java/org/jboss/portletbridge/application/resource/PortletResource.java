@@ -33,6 +33,7 @@ import javax.faces.application.ResourceWrapper;
 import javax.faces.context.ExternalContext;
 import javax.faces.context.FacesContext;
 
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
 
 /**
@@ -101,16 +102,12 @@ public class PortletResource extends ResourceWrapper implements Externalizable {
 
         if (null != wrappedPath) {
             if (wrappedPath.contains(ResourceHandler.RESOURCE_IDENTIFIER)) {
-                List<String> servletMappings = BridgeContext.getCurrentInstance().getBridgeConfig().getFacesServletMappings();
-                //TODO Handle this nicer? Maybe cache extension mappings on startup
-                for (String mapping : servletMappings) {
-                    if (mapping.startsWith("*.")) {
-                        mapping = mapping.substring(1);
-                        String libraryToken = mapping + "?ln";
-                        int pos = wrappedPath.indexOf(libraryToken);
-                        if (pos > 0) {
-                            wrappedPath = wrappedPath.substring(0, pos) + wrappedPath.substring(pos + mapping.length());
-                        }
+                List<String> suffixes = BridgeRuntime.getInstance(BridgeContext.getCurrentInstance().getBridgeConfig())
+                    .getFacesServletSuffixMappings();
+                for (String suffix : suffixes) {
+                    int pos = wrappedPath.indexOf(suffix + "?ln");
+                    if (pos > 0) {
+                        wrappedPath = wrappedPath.substring(0, pos) + wrappedPath.substring(pos + suffix.length());
                     }
                 }
             }
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.faces.FactoryFinder;
+import javax.faces.application.Application;
+import javax.faces.application.ApplicationFactory;
+import javax.faces.context.FacesContextFactory;
+import javax.faces.lifecycle.Lifecycle;
+import javax.faces.lifecycle.LifecycleFactory;
+
+import org.jboss.portletbridge.bridge.factory.BridgeContextFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.el.BridgeELContextListener;
+import org.jboss.portletbridge.util.LRUMap;
+
+/**
+ * Factories and JSF {@link Lifecycle} used by a Bridge instance on every request. Each is looked up once, on first use,
+ * and read from a field afterwards instead of going through {@link FactoryFinder} and {@link BridgeFactoryFinder} for
+ * every request. The runtime also holds what the Bridge derives from its configuration while serving requests, such as
+ * the parameters of JSF resource urls.
+ * <p>
+ * The runtime is kept in the {@link BridgeConfig} attributes. {@link #invalidateAll()} is called when the application
+ * is stopped, so that a Bridge that outlives a restart of JSF looks up the new factories instead of holding onto those
+ * that were released.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public final class BridgeRuntime {
+
+    public static final String RUNTIME_ATTRIBUTE = BridgeRuntime.class.getName();
+
+    private static final AtomicInteger generations = new AtomicInteger();
+
+    private static final int RESOURCE_URL_TEMPLATES_SIZE = 256;
+
+    private final int generation;
+    private final BridgeConfig bridgeConfig;
+
+    private volatile BridgeContextFactory bridgeContextFactory;
+    private volatile ApplicationFactory applicationFactory;
+    private volatile FacesContextFactory facesContextFactory;
+    private volatile LifecycleHolder lifecycle;
+    private volatile Application listenedApplication;
+    private volatile Map<String, Map<String, String[]>> resourceUrlTemplates;
+    private volatile SuffixMappingsHolder suffixMappings;
+
+    private BridgeRuntime(BridgeConfig bridgeConfig) {
+        this.generation = generations.get();
+        this.bridgeConfig = bridgeConfig;
+    }
+
+    /**
+     * Retrieve the runtime for the given {@link BridgeConfig}, creating it if there is none or the one present has been
+     * invalidated.
+     *
+     * @param bridgeConfig
+     * @return runtime of the Bridge instance
+     */
+    public static BridgeRuntime getInstance(BridgeConfig bridgeConfig) {
+        Object runtime = bridgeConfig.getAttributes().get(RUNTIME_ATTRIBUTE);
+        if (runtime instanceof BridgeRuntime && ((BridgeRuntime) runtime).generation == generations.get()) {
+            return (BridgeRuntime) runtime;
+        }
+
+        // Creation is cheap and lookups are idempotent, so a race only costs a duplicate lookup
+        BridgeRuntime created = new BridgeRuntime(bridgeConfig);
+        bridgeConfig.getAttributes().put(RUNTIME_ATTRIBUTE, created);
+        return created;
+    }
+
+    /**
+     * Remove the runtime from the given {@link BridgeConfig}, when the Bridge is destroyed.
+     *
+     * @param bridgeConfig
+     */
+    public static void release(BridgeConfig bridgeConfig) {
+        bridgeConfig.getAttributes().remove(RUNTIME_ATTRIBUTE);
+    }
+
+    /**
+     * Invalidate every runtime, so that factories are looked up again on next use.
+     */
+    public static void invalidateAll() {
+        generations.incrementAndGet();
+    }
+
+    public BridgeContextFactory getBridgeContextFactory() {
+        BridgeContextFactory factory = bridgeContextFactory;
+        if (null == factory) {
+            factory = (BridgeContextFactory) BridgeFactoryFinder.getFactoryInstance(BridgeContextFactory.class);
+            bridgeContextFactory = factory;
+        }
+        return factory;
+    }
+
+    public ApplicationFactory getApplicationFactory() {
+        ApplicationFactory factory = applicationFactory;
+        if (null == factory) {
+            factory = (ApplicationFactory) FactoryFinder.getFactory(FactoryFinder.APPLICATION_FACTORY);
+            applicationFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * The {@link Application} is not cached itself, as it can be replaced on the {@link ApplicationFactory}.
+     *
+     * @return current JSF {@link Application}
+     */
+    public Application getApplication() {
+        return getApplicationFactory().getApplication();
+    }
+
+    /**
+     * Register the {@link BridgeELContextListener} with the current {@link Application}. Only checks the listeners of
+     * the Application the first time it is seen, or after it has been replaced.
+     */
+    public void registerELContextListener() {
+        Application application = getApplication();
+        if (application != listenedApplication) {
+            BridgeELContextListener.register(application);
+            listenedApplication = application;
+        }
+    }
+
+    public FacesContextFactory getFacesContextFactory() {
+        FacesContextFactory factory = facesContextFactory;
+        if (null == factory) {
+            factory = (FacesContextFactory) FactoryFinder.getFactory(FactoryFinder.FACES_CONTEXT_FACTORY);
+            facesContextFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * @return JSF {@link Lifecycle} for {@link BridgeConfig#getLifecycleId()}, looked up again should the id change
+     */
+    public Lifecycle getLifecycle() {
+        String lifecycleId = bridgeConfig.getLifecycleId();
+        LifecycleHolder holder = lifecycle;
+        if (null == holder || !holder.lifecycleId.equals(lifecycleId)) {
+            LifecycleFactory factory = (LifecycleFactory) FactoryFinder.getFactory(FactoryFinder.LIFECYCLE_FACTORY);
+            holder = new LifecycleHolder(lifecycleId, factory.getLifecycle(lifecycleId));
+            lifecycle = holder;
+        }
+        return holder.lifecycle;
+    }
+
+    /**
+     * Parameters of the portlet resource url that a JSF resource request path is encoded into, keyed by request path. They
+     * only depend on the configuration of the Bridge, whereas the encoded url also carries the state of the portlet window
+     * it is created for, so only the parameters are kept across requests.
+     *
+     * @return bounded, synchronized map of resource url parameters
+     */
+    public Map<String, Map<String, String[]>> getResourceUrlTemplates() {
+        Map<String, Map<String, String[]>> templates = resourceUrlTemplates;
+        if (null == templates) {
+            synchronized (this) {
+                templates = resourceUrlTemplates;
+                if (null == templates) {
+                    templates = Collections.synchronizedMap(new LRUMap<String, Map<String, String[]>>(
+                        RESOURCE_URL_TEMPLATES_SIZE));
+                    resourceUrlTemplates = templates;
+                }
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * @return extensions, including the leading <code>.</code>, of the suffix mappings such as <code>*.xhtml</code> in
+     *         {@link BridgeConfig#getFacesServletMappings()}, derived again should the mappings be replaced
+     */
+    public List<String> getFacesServletSuffixMappings() {
+        List<String> mappings = bridgeConfig.getFacesServletMappings();
+        SuffixMappingsHolder holder = suffixMappings;
+        if (null == holder || holder.mappings != mappings) {
+            List<String> suffixes = new ArrayList<String>();
+            if (null != mappings) {
+                for (String mapping : mappings) {
+                    if (mapping.startsWith("*.")) {
+                        suffixes.add(mapping.substring(1));
+                    }
+                }
+            }
+            holder = new SuffixMappingsHolder(mappings, Collections.unmodifiableList(suffixes));
+            suffixMappings = holder;
+        }
+        return holder.suffixes;
+    }
+
+    private static final class SuffixMappingsHolder {
+        final List<String> mappings;
+        final List<String> suffixes;
+
+        SuffixMappingsHolder(List<String> mappings, List<String> suffixes) {
+            this.mappings = mappings;
+            this.suffixes = suffixes;
+        }
+    }
+
+    private static final class LifecycleHolder {
+        final String lifecycleId;
+        final Lifecycle lifecycle;
+
+        LifecycleHolder(String lifecycleId, Lifecycle lifecycle) {
+            this.lifecycleId = lifecycleId;
+            this.lifecycle = lifecycle;
+        }
+    }
+}
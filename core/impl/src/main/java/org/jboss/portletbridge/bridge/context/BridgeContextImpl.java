@@ -22,7 +22,6 @@
 package org.jboss.portletbridge.bridge.context;
 
 import java.net.MalformedURLException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,8 +31,6 @@ import java.util.Set;
 import javax.el.ELContext;
 import javax.el.ELContextEvent;
 import javax.el.ELContextListener;
-import javax.faces.FactoryFinder;
-import javax.faces.application.ApplicationFactory;
 import javax.faces.context.FacesContext;
 import javax.faces.render.ResponseStateManager;
 import javax.portlet.PortletContext;
@@ -48,6 +45,7 @@ import javax.portlet.faces.BridgeInvalidViewPathException;
 import javax.portlet.faces.BridgeNotAFacesRequestException;
 
 import org.jboss.portletbridge.bridge.config.BridgeConfig;
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
 import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeManagerFactory;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScope;
@@ -55,6 +53,7 @@ import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManager;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManagerImpl;
 import org.jboss.portletbridge.context.PortalActionURL;
 import org.jboss.portletbridge.el.ELContextImpl;
+import org.jboss.portletbridge.util.HashedNameList;
 
 /**
  * @author <a href="http://community.jboss.org/people/kenfinni">Ken Finnigan</a>
@@ -80,16 +79,25 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     private Map<String, String[]> preservedActionParams;
     private boolean viewHistoryInitialized = false;
 
+    // Memoized for the request, see invalidateBridgeScope() and invalidateFacesViewId()
+    private BridgeRequestScopeManager scopeManager;
+    private BridgeRequestScope bridgeScope;
+    private String bridgeScopeViewId;
+    private String bridgeScopeMode;
+    private int bridgeScopeModCount;
+    private String facesViewId;
+    private Object facesViewIdRequest;
+    private boolean facesViewIdExcludesQuery;
+
     public BridgeContextImpl(BridgeConfig bridgeConfig) {
         BridgeContext.setCurrentInstance(this);
 
         this.bridgeConfig = bridgeConfig;
         this.portletContext = bridgeConfig.getPortletConfig().getPortletContext();
 
-        // Add as ELContextListener to the Faces App so we can add the
-        // portletConfig to any newly created contexts.
-        ((ApplicationFactory) FactoryFinder.getFactory(FactoryFinder.APPLICATION_FACTORY)).getApplication()
-                .addELContextListener(this);
+        // Make sure the application level ELContextListener is registered with the Faces App, so that
+        // contextCreated() is called for contexts created while this is the current instance.
+        BridgeRuntime.getInstance(bridgeConfig).registerELContextListener();
     }
 
     /**
@@ -109,12 +117,10 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
         redirectViewId = null;
         preExistingRequestAttributeNames = null;
         preservedActionParams = null;
+        invalidateBridgeScope();
+        invalidateFacesViewId();
 
         BridgeContext.setCurrentInstance(null);
-
-        // Remove as ELContextListener from the Faces App
-        ((ApplicationFactory) FactoryFinder.getFactory(FactoryFinder.APPLICATION_FACTORY)).getApplication()
-                .removeELContextListener(this);
     }
 
     /**
@@ -139,6 +145,8 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     @Override
     public void setPortletRequest(PortletRequest request) {
         portletRequest = request;
+        invalidateBridgeScope();
+        invalidateFacesViewId();
 
         if (null != getBridgeConfig()) {
             initViewHistory();
@@ -191,6 +199,8 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     @Override
     public void setBridgeConfig(BridgeConfig config) {
         bridgeConfig = config;
+        invalidateBridgeScope();
+        invalidateFacesViewId();
 
         if (null != getPortletRequest()) {
             initViewHistory();
@@ -289,6 +299,7 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     @Override
     public void setRedirectViewId(String viewId) {
         redirectViewId = viewId;
+        invalidateFacesViewId();
         setRenderRedirect(true);
     }
 
@@ -334,7 +345,8 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     public void setPreFacesRequestAttrNames(List<String> names) {
         preExistingRequestAttributeNames = null;
         if (null != names) {
-            preExistingRequestAttributeNames = new ArrayList<String>(names);
+            // Shared as is when already an immutable snapshot, such as the one taken by the Bridge
+            preExistingRequestAttributeNames = HashedNameList.copyOf(names);
         }
     }
 
@@ -447,20 +459,81 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
         if (null != facesContext && null != facesContext.getViewRoot()) {
             viewId = facesContext.getViewRoot().getViewId();
         } else {
+            // Resolving the view from the request is memoized, for as long as it is for the same request
+            Object request = null != facesContext ? facesContext.getExternalContext().getRequest() : portletRequest;
+            if (null != facesViewId && request == facesViewIdRequest && excludeQueryString == facesViewIdExcludesQuery) {
+                return facesViewId;
+            }
+
             viewId = getFacesViewIdFromRequest(excludeQueryString);
             if (null == viewId) {
                 viewId = getDefaultFacesViewIdForRequest(excludeQueryString);
             }
+
+            facesViewId = viewId;
+            facesViewIdRequest = request;
+            facesViewIdExcludesQuery = excludeQueryString;
         }
         return viewId;
     }
 
     /**
+     * Forget the view id resolved from the request, so that it is resolved again on next use.
+     */
+    public void invalidateFacesViewId() {
+        facesViewId = null;
+        facesViewIdRequest = null;
+    }
+
+    /**
+     * The scope is memoized for the view and portlet mode it was looked up for, and looked up again when either of them
+     * or the scopes held by the {@link BridgeRequestScopeManagerImpl} have changed since. A memoized scope is still
+     * touched on every call, as when it is looked up.
+     *
      * @see org.jboss.portletbridge.bridge.context.BridgeContext#getBridgeScope()
      */
     @Override
     public BridgeRequestScope getBridgeScope() {
-        return getBridgeRequestScopeManager().getRequestScope(this);
+        BridgeRequestScopeManager manager = getBridgeRequestScopeManager();
+        if (!(manager instanceof BridgeRequestScopeManagerImpl)) {
+            return manager.getRequestScope(this);
+        }
+
+        BridgeRequestScopeManagerImpl managerImpl = (BridgeRequestScopeManagerImpl) manager;
+        int modCount = managerImpl.getModificationCount();
+        String viewId = getFacesViewId(true);
+        String mode = getPortletRequest().getPortletMode().toString();
+
+        BridgeRequestScope scope = bridgeScope;
+        if (null != scope && modCount == bridgeScopeModCount && equal(viewId, bridgeScopeViewId)
+                && mode.equals(bridgeScopeMode)) {
+            scope = managerImpl.touchRequestScope(scope);
+            if (null != scope) {
+                return scope;
+            }
+        }
+
+        scope = managerImpl.getRequestScope(this, viewId, mode);
+        bridgeScope = scope;
+        bridgeScopeViewId = viewId;
+        bridgeScopeMode = mode;
+        bridgeScopeModCount = modCount;
+        return scope;
+    }
+
+    /**
+     * Forget the memoized {@link BridgeRequestScopeManager} and {@link BridgeRequestScope}, so that they are looked up
+     * again on next use.
+     */
+    public void invalidateBridgeScope() {
+        scopeManager = null;
+        bridgeScope = null;
+        bridgeScopeViewId = null;
+        bridgeScopeMode = null;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == b || (null != a && a.equals(b));
     }
 
     /**
@@ -472,18 +545,29 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     }
 
     /**
+     * The manager is memoized for as long as it is the one held by the session. Should the session have been replaced
+     * during the request, or the manager removed from or replaced in the session, the memoized scope is forgotten and
+     * the manager retrieved again.
+     *
      * @see org.jboss.portletbridge.bridge.context.BridgeContext#getBridgeRequestScopeManager()
      */
     @Override
     public BridgeRequestScopeManager getBridgeRequestScopeManager() {
-        PortletSession session = getPortletRequest().getPortletSession(true);
-        BridgeRequestScopeManager scopeManager = (BridgeRequestScopeManager) session.getAttribute(REQUEST_SCOPE_MANAGER);
+        BridgeRequestScopeManager manager = (BridgeRequestScopeManager) getPortletRequest().getPortletSession(true)
+                .getAttribute(REQUEST_SCOPE_MANAGER);
+        if (null != manager && manager == scopeManager) {
+            return manager;
+        }
+        if (null != scopeManager) {
+            invalidateBridgeScope();
+        }
 
-        if (null == scopeManager) {
-            scopeManager = createBridgeRequestScopeManager();
+        if (null == manager) {
+            manager = createBridgeRequestScopeManager();
         }
 
-        return scopeManager;
+        scopeManager = manager;
+        return manager;
     }
 
     private synchronized BridgeRequestScopeManager createBridgeRequestScopeManager() {
@@ -604,7 +688,8 @@ public class BridgeContextImpl extends BridgeContext implements ELContextListene
     }
 
     /**
-     * ELContextListener impl
+     * ELContextListener impl, called by the application level BridgeELContextListener while this is the current
+     * instance.
      */
     public void contextCreated(ELContextEvent ece) {
         // Add the portletConfig to the ELContext so it is evaluated
@@ -22,7 +22,6 @@
 package org.jboss.portletbridge.bridge.controller;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,7 +33,6 @@ import java.util.Set;
 import javax.el.ELContext;
 import javax.el.ValueExpression;
 import javax.faces.FacesException;
-import javax.faces.FactoryFinder;
 import javax.faces.application.FacesMessage;
 import javax.faces.application.ResourceHandler;
 import javax.faces.application.ViewHandler;
@@ -50,7 +48,6 @@ import javax.faces.event.PreRemoveFromViewEvent;
 import javax.faces.event.SystemEvent;
 import javax.faces.event.SystemEventListener;
 import javax.faces.lifecycle.Lifecycle;
-import javax.faces.lifecycle.LifecycleFactory;
 import javax.faces.render.ResponseStateManager;
 import javax.portlet.EventRequest;
 import javax.portlet.EventResponse;
@@ -66,13 +63,19 @@ import javax.portlet.faces.Bridge;
 import javax.portlet.faces.BridgeException;
 import javax.portlet.faces.event.EventNavigationResult;
 
+import org.jboss.portletbridge.PortletBridgeConstants;
 import org.jboss.portletbridge.bridge.config.BridgeConfig;
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
 import org.jboss.portletbridge.bridge.event.BridgePostConstructFacesContextSystemEvent;
 import org.jboss.portletbridge.bridge.event.BridgePreReleaseFacesContextSystemEvent;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScope;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeImpl;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManager;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManagerImpl;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeOverlay;
+import org.jboss.portletbridge.bridge.scope.ExcludedAttributeMatcher;
 import org.jboss.portletbridge.context.AbstractExternalContext;
 import org.jboss.portletbridge.context.flash.PortletFlash;
 import org.jboss.portletbridge.lifecycle.PortalPhaseListener;
@@ -80,8 +83,10 @@ import org.jboss.portletbridge.lifecycle.PublicParameterPhaseListener;
 import org.jboss.portletbridge.lifecycle.RenderResponsePhaseListener;
 import org.jboss.portletbridge.util.BeanWrapper;
 import org.jboss.portletbridge.util.FacesMessageWrapper;
+import org.jboss.portletbridge.util.HashedNameList;
 import org.jboss.portletbridge.util.ParameterFunction;
 import org.jboss.portletbridge.util.PublicParameterUtil;
+import org.jboss.portletbridge.util.ViewStateWrapper;
 
 import com.sun.faces.context.StateContext;
 import com.sun.faces.context.StateContext.AddRemoveListener;
@@ -91,7 +96,6 @@ import com.sun.faces.context.StateContext.AddRemoveListener;
  */
 public class Jsf20ControllerImpl implements BridgeController {
     protected BridgeConfig bridgeConfig = null;
-    protected FacesContextFactory facesContextFactory = null;
 
     protected static final String RENDER_REDIRECT_VIEW_PARAMS = "org.jboss.portletbridge.renderRedirectViewParams";
     protected static final String RENDER_REDIRECT_PUBLIC_PARAM_MAP = "org.jboss.portletbridge.renderRedirectPublicParamMap";
@@ -382,7 +386,8 @@ public class Jsf20ControllerImpl implements BridgeController {
 
             saveBeans(bridgeContext, facesContext);
 
-            scope.putAll(facesContext.getExternalContext().getRequestMap());
+            captureRequestAttributes(bridgeContext, scope);
+            updateBridgeRequestScope(bridgeContext, scope);
 
             ((StateAwareResponse) bridgeContext.getPortletResponse()).setRenderParameter(REQUEST_SCOPE_ID, scope.getId());
         }
@@ -394,7 +399,13 @@ public class Jsf20ControllerImpl implements BridgeController {
         BridgeRequestScope scope = scopeManager.createRequestScope(bridgeContext, bridgeContext.getFacesViewId(true));
 
         // Add excludes
-        scope.setExcludedEntries(bridgeConfig.getExcludedRequestAttributes());
+        if (scope instanceof BridgeRequestScopeImpl) {
+            // Share the excludes compiled once for the portlet
+            ((BridgeRequestScopeImpl) scope).setExcludedEntries(bridgeConfig.getExcludedRequestAttributes(),
+                ExcludedAttributeMatcher.forConfig(bridgeConfig));
+        } else {
+            scope.setExcludedEntries(bridgeConfig.getExcludedRequestAttributes());
+        }
         scope.addExcludedEntries(bridgeContext.getPreFacesRequestAttrNames());
         return scope;
     }
@@ -495,6 +506,7 @@ public class Jsf20ControllerImpl implements BridgeController {
             }
 
             saveFacesView(scope, facesContext);
+            updateBridgeRequestScope(bridgeContext, scope);
         } else {
             // We're in Resource Request
             if (isBridgeScopeAjaxEnabled()) {
@@ -507,12 +519,24 @@ public class Jsf20ControllerImpl implements BridgeController {
                 if (isFacesMessagesStoredOnAjax()) {
                     saveMessages(facesContext);
                 }
-                scope.putAll(facesContext.getExternalContext().getRequestMap());
+                captureRequestAttributes(bridgeContext, scope);
+                updateBridgeRequestScope(bridgeContext, scope);
             }
         }
 
     }
 
+    /**
+     * Write back a scope whose content has been updated, for a scope manager whose store does not hold scopes by
+     * reference.
+     */
+    protected void updateBridgeRequestScope(BridgeContext bridgeContext, BridgeRequestScope scope) {
+        BridgeRequestScopeManager scopeManager = bridgeContext.getBridgeRequestScopeManager();
+        if (scopeManager instanceof BridgeRequestScopeManagerImpl) {
+            ((BridgeRequestScopeManagerImpl) scopeManager).updateRequestScope(bridgeContext, scope);
+        }
+    }
+
     protected boolean isBridgeScopeAjaxEnabled() {
         return bridgeConfig.isBridgeScopeEnabledOnAjaxRequest();
     }
@@ -530,6 +554,12 @@ public class Jsf20ControllerImpl implements BridgeController {
         restoreMessages(facesContext, scope);
         restoreBeans(bridgeContext, scope);
 
+        if (isEnabled(PortletBridgeConstants.REQUEST_SCOPE_LAZY_RESTORE)) {
+            // Entries are read through the request map, and only reach the portlet request when set
+            BridgeRequestScopeOverlay.install(bridgeContext, scope);
+            return;
+        }
+
         Set<Map.Entry<String, Object>> keys = scope.entrySet();
         for (Entry<String, Object> entry : keys) {
             bridgeContext.getPortletRequest().setAttribute(entry.getKey(), entry.getValue());
@@ -539,7 +569,12 @@ public class Jsf20ControllerImpl implements BridgeController {
     protected void restoreFacesViewFromScope(FacesContext facesContext, BridgeRequestScope scope) {
         UIViewRoot viewRoot = null;
 
-        viewRoot = (UIViewRoot) scope.remove(VIEW_ROOT);
+        Object view = scope.remove(VIEW_ROOT);
+        if (view instanceof ViewStateWrapper) {
+            viewRoot = ((ViewStateWrapper) view).restoreView(facesContext);
+        } else {
+            viewRoot = (UIViewRoot) view;
+        }
         if (null != viewRoot) {
             facesContext.setViewRoot(viewRoot);
         }
@@ -570,7 +605,18 @@ public class Jsf20ControllerImpl implements BridgeController {
     }
 
     protected void saveFacesView(BridgeRequestScope scope, FacesContext facesContext) {
-        scope.put(VIEW_ROOT, facesContext.getViewRoot());
+        UIViewRoot viewRoot = facesContext.getViewRoot();
+        if (null != viewRoot && isEnabled(PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_SAVED)) {
+            try {
+                scope.put(VIEW_ROOT, ViewStateWrapper.saveView(facesContext, viewRoot,
+                    isEnabled(PortletBridgeConstants.REQUEST_SCOPE_VIEW_STATE_COMPRESSED)));
+                return;
+            } catch (IOException e) {
+                bridgeConfig.getLogger().log(Level.WARNING, "Unable to serialize state of view " + viewRoot.getViewId()
+                    + " (" + e.getMessage() + "), retaining component tree instead", e);
+            }
+        }
+        scope.put(VIEW_ROOT, viewRoot);
     }
 
     protected void saveMessages(FacesContext facesContext) {
@@ -596,15 +642,9 @@ public class Jsf20ControllerImpl implements BridgeController {
 
     protected void saveBeans(BridgeContext bridgeContext, FacesContext facesContext) {
         ExternalContext externalContext = facesContext.getExternalContext();
-        List<String> existingAttributes = null;
+        List<String> existingAttributes = HashedNameList.empty();
         if (null != bridgeContext) {
-            existingAttributes = bridgeContext.getPreFacesRequestAttrNames();
-        }
-        if (null == existingAttributes) {
-            existingAttributes = new ArrayList<String>();
-        } else {
-            // Create local copy for merge with initial parameters.
-            existingAttributes = new ArrayList<String>(existingAttributes);
+            existingAttributes = HashedNameList.copyOf(bridgeContext.getPreFacesRequestAttrNames());
         }
 
         Map<String, Object> requestMap = externalContext.getRequestMap();
@@ -626,6 +666,28 @@ public class Jsf20ControllerImpl implements BridgeController {
         }
     }
 
+    /**
+     * Copy into the scope the request attributes added or replaced since the bridge acquired the FacesContext.
+     * Attributes present before then are skipped, as are attributes whose value the scope already holds, so that
+     * unchanged entries are not put again and do not have their @BridgePreDestroy methods called.
+     */
+    protected void captureRequestAttributes(BridgeContext bridgeContext, BridgeRequestScope scope) {
+        List<String> preFacesNames = HashedNameList.copyOf(bridgeContext.getPreFacesRequestAttrNames());
+
+        PortletRequest request = bridgeContext.getPortletRequest();
+        Enumeration<String> attributeNames = request.getAttributeNames();
+        while (attributeNames.hasMoreElements()) {
+            String name = attributeNames.nextElement();
+            if (preFacesNames.contains(name)) {
+                continue;
+            }
+            Object value = request.getAttribute(name);
+            if (null != value && value != scope.get(name)) {
+                scope.put(name, value);
+            }
+        }
+    }
+
     protected void saveActionParams(BridgeContext bridgeContext, FacesContext facesContext) {
         ExternalContext externalContext = facesContext.getExternalContext();
 
@@ -687,16 +749,11 @@ public class Jsf20ControllerImpl implements BridgeController {
     }
 
     protected FacesContextFactory getFacesContextFactory() throws FacesException {
-        if (null == facesContextFactory) {
-            facesContextFactory = (FacesContextFactory) FactoryFinder.getFactory(FactoryFinder.FACES_CONTEXT_FACTORY);
-        }
-
-        return facesContextFactory;
+        return BridgeRuntime.getInstance(bridgeConfig).getFacesContextFactory();
     }
 
     protected Lifecycle getFacesLifecycle() throws FacesException {
-        LifecycleFactory lifecycleFactory = (LifecycleFactory) FactoryFinder.getFactory(FactoryFinder.LIFECYCLE_FACTORY);
-        return lifecycleFactory.getLifecycle(bridgeConfig.getLifecycleId());
+        return BridgeRuntime.getInstance(bridgeConfig).getLifecycle();
     }
 
     protected void releaseFacesContext(BridgeContext bridgeContext, FacesContext facesContext) {
@@ -730,11 +787,25 @@ public class Jsf20ControllerImpl implements BridgeController {
     protected void clearBridgeRequestScope(BridgeContext bridgeContext) {
         BridgeRequestScope scope = bridgeContext.getBridgeScope();
         if (null != scope) {
-            scope.clear();
-            bridgeContext.getBridgeRequestScopeManager().removeRequestScope(bridgeContext, scope);
+            // The manager clears the scopes it removes, possibly in the background. A scope it no longer holds was
+            // cleared by the manager when it was evicted or expired.
+            BridgeRequestScopeManager scopeManager = bridgeContext.getBridgeRequestScopeManager();
+            if (null == scopeManager.removeRequestScope(bridgeContext, scope)
+                && !(scopeManager instanceof BridgeRequestScopeManagerImpl)) {
+                scope.clear();
+            }
         }
     }
 
+    /**
+     * @param option
+     *            init parameter of an option kept in the {@link BridgeConfig} attributes
+     * @return whether the option has been enabled
+     */
+    private boolean isEnabled(String option) {
+        return Boolean.TRUE.equals(bridgeConfig.getAttributes().get(option));
+    }
+
     protected void throwBridgeException(Exception e) throws BridgeException {
         if (!(e instanceof BridgeException)) {
             e = new BridgeException(e);
@@ -22,10 +22,15 @@
 package org.jboss.portletbridge.bridge.factory;
 
 import javax.faces.FacesException;
+import javax.portlet.PortletContext;
 
+import org.jboss.portletbridge.PortletBridgeConstants;
 import org.jboss.portletbridge.bridge.config.BridgeConfig;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeKeyValueStore;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManager;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeManagerImpl;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore;
+import org.jboss.portletbridge.bridge.scope.KeyValueCache;
 
 /**
  * @author kenfinnigan
@@ -37,7 +42,23 @@ public class BridgeRequestScopeManagerFactoryImpl extends BridgeRequestScopeMana
      */
     @Override
     public BridgeRequestScopeManager getBridgeRequestScopeManager(BridgeConfig bridgeConfig) throws FacesException {
-        return new BridgeRequestScopeManagerImpl(bridgeConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig, getBridgeRequestScopeStore(bridgeConfig));
+    }
+
+    /**
+     * Determine where the manager holds its scopes. Override to plug in a different {@link BridgeRequestScopeStore}.
+     *
+     * @param bridgeConfig
+     * @return a {@link BridgeRequestScopeKeyValueStore} if a {@link KeyValueCache} is configured, or null for the
+     *         default store
+     */
+    protected BridgeRequestScopeStore getBridgeRequestScopeStore(BridgeConfig bridgeConfig) {
+        PortletContext portletContext = bridgeConfig.getPortletConfig().getPortletContext();
+        if (null != portletContext.getAttribute(KeyValueCache.CACHE_ATTRIBUTE)
+            || null != portletContext.getInitParameter(PortletBridgeConstants.REQUEST_SCOPE_KEY_VALUE_CACHE)) {
+            return new BridgeRequestScopeKeyValueStore();
+        }
+        return null;
     }
 
 }
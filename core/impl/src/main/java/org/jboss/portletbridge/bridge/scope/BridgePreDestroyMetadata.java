@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.portlet.faces.annotation.BridgePreDestroy;
+
+import org.jboss.portletbridge.util.ClassValueCache;
+
+/**
+ * Per-class metadata needed when an attribute is removed from a {@link BridgeRequestScope}, resolved by reflection once
+ * for each class rather than on every removal.
+ *
+ * @author kenfinnigan
+ */
+public final class BridgePreDestroyMetadata {
+
+    private static final Method[] NO_METHODS = new Method[0];
+
+    /**
+     * Shared by all classes without {@link BridgePreDestroy} methods and without annotated members.
+     */
+    private static final BridgePreDestroyMetadata NONE = new BridgePreDestroyMetadata(NO_METHODS, false);
+
+    private static final ClassValueCache<BridgePreDestroyMetadata> CACHE =
+        new ClassValueCache<BridgePreDestroyMetadata>() {
+            @Override
+            protected BridgePreDestroyMetadata computeValue(Class<?> type) {
+                Method[] preDestroyMethods = findPreDestroyMethods(type);
+                boolean annotated = scanForAnnotations(type);
+                if (preDestroyMethods.length == 0 && !annotated) {
+                    return NONE;
+                }
+                return new BridgePreDestroyMetadata(preDestroyMethods, annotated);
+            }
+        };
+
+    private final Method[] preDestroyMethods;
+    private final boolean annotated;
+
+    private BridgePreDestroyMetadata(Method[] preDestroyMethods, boolean annotated) {
+        this.preDestroyMethods = preDestroyMethods;
+        this.annotated = annotated;
+    }
+
+    public static BridgePreDestroyMetadata forClass(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    /**
+     * Release the metadata of all classes, to be called when the application is shut down.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Public, no-arg, void return, non static methods annotated with {@link BridgePreDestroy}, as required by JSR-329
+     * 6.8.2.
+     */
+    public Method[] getPreDestroyMethods() {
+        return preDestroyMethods;
+    }
+
+    public boolean hasPreDestroyMethods() {
+        return preDestroyMethods.length > 0;
+    }
+
+    /**
+     * Whether any field or method declared by the class, or its superclasses, is annotated. If so the JSF BeanBuilder
+     * will call invokePreDestroy() on the InjectionProvider when the bean is destroyed through the BeanManager.
+     */
+    public boolean hasAnnotatedMembers() {
+        return annotated;
+    }
+
+    private static Method[] findPreDestroyMethods(Class<?> type) {
+        List<Method> found = null;
+        for (Method method : type.getMethods()) {
+            if (!method.isAnnotationPresent(BridgePreDestroy.class)) {
+                continue;
+            }
+
+            int modifiers = method.getModifiers();
+            if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers)) {
+                continue;
+            }
+
+            if (method.getParameterTypes().length > 0 || method.getReturnType() != void.class) {
+                continue;
+            }
+
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                try {
+                    method.setAccessible(true);
+                } catch (SecurityException e) {
+                    // Invocation will fail and be logged
+                }
+            }
+
+            if (null == found) {
+                found = new ArrayList<Method>(1);
+            }
+            found.add(method);
+        }
+        return null != found ? found.toArray(new Method[found.size()]) : NO_METHODS;
+    }
+
+    private static boolean scanForAnnotations(Class<?> clazz) {
+        while (null != clazz && clazz != Object.class) {
+            for (Field field : clazz.getDeclaredFields()) {
+                if (field.getAnnotations().length > 0) {
+                    return true;
+                }
+            }
+
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getDeclaredAnnotations().length > 0) {
+                    return true;
+                }
+            }
+
+            clazz = clazz.getSuperclass();
+        }
+        return false;
+    }
+}
@@ -21,31 +21,356 @@
  */
 package org.jboss.portletbridge.bridge.scope;
 
-import org.jboss.portletbridge.util.LRUMap;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Least Recently Used (LRU) Cache of {@link BridgeRequestScope} objects in Bridge.
+ * Bounded, concurrent cache of {@link BridgeRequestScope} objects in Bridge.
+ * <p>
+ * Entries are held in a {@link ConcurrentHashMap}, so lookups never block and never modify the structure of the cache.
+ * A lookup only marks the entry as referenced. When the cache grows beyond its capacity, entries are evicted following
+ * the CLOCK (second chance) policy: the oldest entry is evicted unless it has been referenced since the clock hand last
+ * passed it, in which case its reference bit is cleared and it is moved to the back of the clock.
+ * </p>
  *
  * @author kenfinnigan
  */
-public class BridgeRequestScopeCache extends LRUMap<String, BridgeRequestScope> {
+public class BridgeRequestScopeCache extends AbstractMap<String, BridgeRequestScope> implements
+    ConcurrentMap<String, BridgeRequestScope>, Serializable {
 
-    private static final long serialVersionUID = 3063840061349901306L;
+    private static final long serialVersionUID = -4283418512740532117L;
+
+    private final int maxCapacity;
+
+    private transient ConcurrentHashMap<String, Node> entries;
+    private transient ConcurrentLinkedQueue<Node> clock;
+    private transient AtomicInteger staleNodes;
+    private transient ReentrantLock evictionLock;
+    private transient Set<Map.Entry<String, BridgeRequestScope>> entrySet;
+    private transient EvictionListener evictionListener;
 
     public BridgeRequestScopeCache(int maxCapacity) {
-        super(maxCapacity);
+        this.maxCapacity = maxCapacity;
+        init();
+    }
+
+    private void init() {
+        this.entries = new ConcurrentHashMap<String, Node>(Math.max(16, (int) (maxCapacity / .75f) + 1));
+        this.clock = new ConcurrentLinkedQueue<Node>();
+        this.staleNodes = new AtomicInteger();
+        this.evictionLock = new ReentrantLock();
+    }
+
+    public int getMaxCapacity() {
+        return maxCapacity;
+    }
+
+    /**
+     * Register the listener to notify once a scope has been evicted. The listener is not serialized with the cache.
+     */
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Retrieve the scope for the given key, marking it as recently used. Never blocks.
+     */
+    @Override
+    public BridgeRequestScope get(Object key) {
+        Node node = entries.get(key);
+        if (null == node) {
+            return null;
+        }
+        // Avoid a volatile write, and the cache line invalidation that goes with it, when already marked
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.scope;
     }
 
     @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, BridgeRequestScope> eldest) {
-        if (super.removeEldestEntry(eldest)) {
-            // Manually remove entry from Map
-            BridgeRequestScope scope = super.remove(eldest.getKey());
+    public BridgeRequestScope put(String key, BridgeRequestScope scope) {
+        Node node = new Node(key, scope);
+        Node old = entries.put(key, node);
+        clock.offer(node);
+        if (null != old) {
+            unlinked(old);
+        }
+        evictIfRequired();
+        return null != old ? old.scope : null;
+    }
+
+    public BridgeRequestScope putIfAbsent(String key, BridgeRequestScope scope) {
+        Node node = new Node(key, scope);
+        Node old = entries.putIfAbsent(key, node);
+        if (null != old) {
+            return old.scope;
+        }
+        clock.offer(node);
+        evictIfRequired();
+        return null;
+    }
+
+    @Override
+    public BridgeRequestScope remove(Object key) {
+        Node node = entries.remove(key);
+        if (null == node) {
+            return null;
+        }
+        unlinked(node);
+        return node.scope;
+    }
+
+    public boolean remove(Object key, Object value) {
+        Node node = entries.get(key);
+        if (null != node && null != value && (value == node.scope || value.equals(node.scope))
+            && entries.remove(key, node)) {
+            unlinked(node);
+            return true;
+        }
+        return false;
+    }
+
+    public BridgeRequestScope replace(String key, BridgeRequestScope scope) {
+        Node node = new Node(key, scope);
+        Node old = entries.replace(key, node);
+        if (null == old) {
+            return null;
+        }
+        clock.offer(node);
+        unlinked(old);
+        return old.scope;
+    }
 
+    public boolean replace(String key, BridgeRequestScope oldScope, BridgeRequestScope newScope) {
+        Node old = entries.get(key);
+        if (null == old || null == oldScope || (oldScope != old.scope && !oldScope.equals(old.scope))) {
+            return false;
+        }
+        Node node = new Node(key, newScope);
+        if (!entries.replace(key, old, node)) {
+            return false;
+        }
+        clock.offer(node);
+        unlinked(old);
+        return true;
+    }
+
+    /**
+     * Removes all entries without treating them as evicted, matching {@link Map#clear()}.
+     */
+    @Override
+    public void clear() {
+        for (String key : entries.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, BridgeRequestScope>> entrySet() {
+        if (null == entrySet) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    /**
+     * Called once a scope has been evicted from the cache because it exceeded its capacity. Called outside of any lock
+     * held by the cache. The scope is cleared, unless an {@link EvictionListener} has been registered to take care of
+     * it.
+     *
+     * @param key
+     *            of the evicted scope
+     * @param scope
+     *            that was evicted
+     */
+    protected void scopeEvicted(String key, BridgeRequestScope scope) {
+        EvictionListener listener = evictionListener;
+        if (null != listener) {
+            listener.scopeEvicted(key, scope);
+        } else {
             // As per JSR-329 6.8.2, clear() will call preDestroy() on Objects in Scope
             scope.clear();
         }
-        return false;
     }
 
+    private void evictIfRequired() {
+        if (entries.size() <= maxCapacity) {
+            return;
+        }
+
+        List<Node> evicted = null;
+        evictionLock.lock();
+        try {
+            // Every node is passed at most twice: once to clear its reference bit and once to evict it.
+            while (entries.size() > maxCapacity) {
+                Node node = clock.poll();
+                if (null == node) {
+                    break;
+                }
+                if (node.referenced && !node.unlinked) {
+                    node.referenced = false;
+                    clock.offer(node);
+                } else if (entries.remove(node.key, node)) {
+                    node.unlinked = true;
+                    if (null == evicted) {
+                        evicted = new ArrayList<Node>(1);
+                    }
+                    evicted.add(node);
+                } else {
+                    // Already removed from the map by another thread, which counts it as stale
+                    staleNodes.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        if (null != evicted) {
+            for (Node node : evicted) {
+                scopeEvicted(node.key, node.scope);
+            }
+        }
+    }
+
+    /**
+     * Nodes removed from the map are left in the clock and skipped by the clock hand. Purge them once they outnumber
+     * the capacity so that a cache that never overflows does not accumulate them.
+     */
+    private void unlinked(Node node) {
+        node.unlinked = true;
+        if (staleNodes.incrementAndGet() > maxCapacity && evictionLock.tryLock()) {
+            try {
+                for (Iterator<Node> it = clock.iterator(); it.hasNext();) {
+                    if (it.next().unlinked) {
+                        it.remove();
+                        staleNodes.decrementAndGet();
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        // Write entries in clock order so that eviction order survives serialization
+        List<Node> live = new ArrayList<Node>(entries.size());
+        for (Node node : clock) {
+            if (!node.unlinked && entries.get(node.key) == node) {
+                live.add(node);
+            }
+        }
+        out.writeInt(live.size());
+        for (Node node : live) {
+            out.writeObject(node.key);
+            out.writeObject(node.scope);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = (String) in.readObject();
+            BridgeRequestScope scope = (BridgeRequestScope) in.readObject();
+            Node node = new Node(key, scope);
+            entries.put(key, node);
+            clock.offer(node);
+        }
+    }
+
+    /**
+     * Notified of scopes evicted from a {@link BridgeRequestScopeCache} because it exceeded its capacity. The listener is
+     * responsible for clearing the evicted scope, as per JSR-329 6.8.2.
+     */
+    public interface EvictionListener {
+        void scopeEvicted(String key, BridgeRequestScope scope);
+    }
+
+    private static final class Node {
+        final String key;
+        final BridgeRequestScope scope;
+        volatile boolean referenced;
+        volatile boolean unlinked;
+
+        Node(String key, BridgeRequestScope scope) {
+            this.key = key;
+            this.scope = scope;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, BridgeRequestScope>> {
+
+        @Override
+        public Iterator<Map.Entry<String, BridgeRequestScope>> iterator() {
+            final Iterator<Node> nodes = entries.values().iterator();
+
+            return new Iterator<Map.Entry<String, BridgeRequestScope>>() {
+                private Node current;
+
+                public boolean hasNext() {
+                    return nodes.hasNext();
+                }
+
+                public Map.Entry<String, BridgeRequestScope> next() {
+                    current = nodes.next();
+                    return new SimpleImmutableEntry<String, BridgeRequestScope>(current.key, current.scope);
+                }
+
+                public void remove() {
+                    if (null == current) {
+                        throw new IllegalStateException();
+                    }
+                    if (entries.remove(current.key, current)) {
+                        unlinked(current);
+                    }
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void clear() {
+            BridgeRequestScopeCache.this.clear();
+        }
+    }
 }
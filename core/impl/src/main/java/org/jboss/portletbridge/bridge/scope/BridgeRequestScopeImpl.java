@@ -21,16 +21,16 @@
  */
 package org.jboss.portletbridge.bridge.scope;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 
-import javax.portlet.faces.annotation.BridgePreDestroy;
-
 import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
@@ -39,12 +39,20 @@ import org.jboss.portletbridge.listener.PortletBridgeListener;
 /**
  * This class keeps all request attributes that are required to be stored between portlet requests. These parameters are
  * described in the chapter 5.1.2 "Managing Lifecycle State".
+ * <p>
+ * The scope is {@link Externalizable}, so that it is written without the internal structure of the map. Its entries are
+ * written to the same stream as the scope, so values shared with other scopes or session attributes keep their
+ * identity. Every scope held in the session is written whenever the session is replicated. The scope records whether
+ * it has changed since it was last written, so that a store holding scopes outside of the session, such as
+ * {@link BridgeRequestScopeKeyValueStore}, only writes back the scopes that did.
+ * </p>
  *
  * @author asmirnov, kenfinnigan
  */
-public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> implements BridgeRequestScope {
+public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> implements BridgeRequestScope,
+    Externalizable {
 
-    private static final long serialVersionUID = -5796085561862187555L;
+    private static final long serialVersionUID = 8835012893106354340L;
 
     private static final BridgeLogger logger = BridgeLoggerFactoryImpl
         .getLogger(BridgeRequestScopeImpl.class.getName());
@@ -59,6 +67,24 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
     private String viewId;
     private String portletMode;
     private Vector<String> excludedEntries;
+    private transient volatile ExcludedAttributeMatcher excludedMatcher;
+    private long creationTime;
+    private volatile long lastAccessedTime;
+
+    // Incremented on every change, and compared with the count when the scope was last written or read
+    private transient volatile int modCount;
+    private transient volatile int writtenModCount = -1;
+    // Estimated size of the entries, measured again only once the scope has changed
+    private transient volatile SizeEstimate sizeEstimate;
+    // Set once the scope has been found to have expired, so that it is never used again. Guarded by this
+    private transient boolean expired;
+
+    /**
+     * Required by {@link Externalizable}, not to be used otherwise.
+     */
+    public BridgeRequestScopeImpl() {
+        super(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+    }
 
     public BridgeRequestScopeImpl(String portletName, String sessionId, String viewId, String portletMode) {
         super(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
@@ -84,20 +110,33 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
         putAll(requestScopeDataMap);
     }
 
+    /**
+     * Recreate a scope, without its content, that is known only by its identity. Used to account for the removal of a
+     * scope that is not read back from where it was stored, as it holds nothing that needs clearing.
+     */
+    BridgeRequestScopeImpl(String id, String portletName, String sessionId, String viewId, String portletMode,
+        long creationTime, long lastAccessedTime) {
+        super(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_CONCURRENCY_LEVEL);
+        this.uniqRequestScopeId = id;
+        this.portletName = portletName;
+        this.sessionId = sessionId;
+        this.viewId = viewId;
+        this.portletMode = portletMode;
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
     private void initScope(String portletName, String sessionId, String viewId, String portletMode) {
         this.portletName = portletName;
         this.sessionId = sessionId;
         this.viewId = viewId;
         this.portletMode = portletMode;
+        this.uniqRequestScopeId = BridgeRequestScopeUtil.generateBridgeRequestScopeId();
+        this.creationTime = System.currentTimeMillis();
+        this.lastAccessedTime = this.creationTime;
     }
 
     public String getId() {
-        if (null == this.uniqRequestScopeId) {
-            long timeInMillis = Calendar.getInstance().getTimeInMillis();
-            this.uniqRequestScopeId = new StringBuffer(BridgeRequestScopeUtil.generateBridgeRequestScopeIdPrefix(
-                portletName, sessionId, viewId, portletMode)).append(':').append(Long.toString(timeInMillis))
-                .toString();
-        }
         return this.uniqRequestScopeId;
     }
 
@@ -117,13 +156,134 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
         return this.portletMode;
     }
 
+    public long getCreationTime() {
+        return this.creationTime;
+    }
+
+    public long getLastAccessedTime() {
+        return this.lastAccessedTime;
+    }
+
+    /**
+     * Record that the scope has been retrieved for a request.
+     */
+    public void touch(long now) {
+        this.lastAccessedTime = now;
+        // Values may be changed in place by the request
+        markDirty();
+    }
+
+    /**
+     * @return whether the scope has been changed, or retrieved for a request, since it was last serialized
+     */
+    public boolean isDirty() {
+        return this.writtenModCount != this.modCount;
+    }
+
+    /**
+     * Record a change to the scope. Values are not tracked, so call when a value held by the scope has been changed in
+     * place.
+     */
+    public void markDirty() {
+        this.modCount++;
+    }
+
+    /**
+     * Estimate the heap retained by the attributes of the scope, as per {@link BridgeRequestScopeSizeEstimator}. The
+     * attributes are only measured again if the scope has changed since it was last estimated.
+     *
+     * @return estimated size in bytes
+     */
+    long getEstimatedSize() {
+        int currentModCount = this.modCount;
+        SizeEstimate estimate = this.sizeEstimate;
+        if (null == estimate || estimate.modCount != currentModCount) {
+            estimate = new SizeEstimate(currentModCount, BridgeRequestScopeSizeEstimator.estimateEntries(this));
+            this.sizeEstimate = estimate;
+        }
+        return estimate.bytes;
+    }
+
+    /**
+     * Determine whether the scope has been unused for longer than the idle timeout, or has existed for longer than the
+     * maximum age.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param idleTimeout
+     *            in milliseconds, or 0 for none
+     * @param maxAge
+     *            in milliseconds, or 0 for none
+     * @return true if the scope has expired
+     */
+    public boolean isExpired(long now, long idleTimeout, long maxAge) {
+        return (idleTimeout > 0 && now - this.lastAccessedTime > idleTimeout)
+            || (maxAge > 0 && now - this.creationTime > maxAge);
+    }
+
+    /**
+     * Record that the scope has been retrieved for a request, unless it has expired. Atomic with respect to
+     * {@link #expire(long, long, long)}, so that a scope is either used by the request or removed as expired, never
+     * both.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param idleTimeout
+     *            in milliseconds, or 0 for none
+     * @param maxAge
+     *            in milliseconds, or 0 for none
+     * @return true if the scope was touched, false if it has expired
+     */
+    public synchronized boolean touchUnlessExpired(long now, long idleTimeout, long maxAge) {
+        if (this.expired || isExpired(now, idleTimeout, maxAge)) {
+            this.expired = true;
+            return false;
+        }
+        touch(now);
+        return true;
+    }
+
+    /**
+     * Mark the scope as expired if it has been unused for longer than the idle timeout, or has existed for longer than
+     * the maximum age. Once marked, {@link #touchUnlessExpired(long, long, long)} no longer touches the scope, so it
+     * can be removed without a request concurrently retrieving it.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param idleTimeout
+     *            in milliseconds, or 0 for none
+     * @param maxAge
+     *            in milliseconds, or 0 for none
+     * @return true if the scope has expired
+     */
+    public synchronized boolean expire(long now, long idleTimeout, long maxAge) {
+        if (!this.expired && isExpired(now, idleTimeout, maxAge)) {
+            this.expired = true;
+        }
+        return this.expired;
+    }
+
     public void setExcludedEntries(List<String> excludedNames) {
+        setExcludedEntries(excludedNames, ExcludedAttributeMatcher.compile(excludedNames));
+    }
+
+    /**
+     * Sets a new List of excluded attribute names, along with their already compiled form so that it can be shared
+     * between scopes.
+     *
+     * @param excludedNames
+     * @param matcher
+     *            compiled from excludedNames
+     */
+    public void setExcludedEntries(List<String> excludedNames, ExcludedAttributeMatcher matcher) {
         this.excludedEntries = new Vector<String>(excludedNames);
+        this.excludedMatcher = matcher;
     }
 
     public void addExcludedEntries(List<String> excludedNames) {
         if (null != this.excludedEntries) {
             this.excludedEntries.addAll(excludedNames);
+            this.excludedMatcher = getExcludedMatcher().with(excludedNames);
         } else {
             this.setExcludedEntries(excludedNames);
         }
@@ -134,13 +294,25 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
     }
 
     public boolean isExcluded(String key, Object value) {
-        return BridgeRequestScopeUtil.isExcluded(key, value, this.excludedEntries);
+        return getExcludedMatcher().isExcluded(key, value);
+    }
+
+    private ExcludedAttributeMatcher getExcludedMatcher() {
+        ExcludedAttributeMatcher matcher = this.excludedMatcher;
+        if (null == matcher) {
+            // Not set yet, or not serialized with the scope
+            matcher = ExcludedAttributeMatcher.compile(this.excludedEntries);
+            this.excludedMatcher = matcher;
+        }
+        return matcher;
     }
 
     @Override
     public Object putIfAbsent(String key, Object value) {
         if (!isExcluded(key, value)) {
-            return callPreDestroy(key, super.putIfAbsent(key, value));
+            markDirty();
+            // A value already present stays in the scope, so nothing is destroyed
+            return super.putIfAbsent(key, value);
         }
         return null;
     }
@@ -151,7 +323,8 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
     @Override
     public Object put(String key, Object value) {
         if (!isExcluded(key, value)) {
-            return callPreDestroy(key, super.put(key, value));
+            markDirty();
+            return displaced(key, super.put(key, value), value);
         }
         return null;
     }
@@ -167,34 +340,141 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
     }
 
     public Object remove(String key) {
-        return callPreDestroy(key, super.remove(key));
+        return remove((Object) key);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        markDirty();
+        Object removed = super.remove(key);
+        if (key instanceof String) {
+            callPreDestroy((String) key, removed);
+        }
+        return removed;
     }
 
     public boolean remove(String key, Object value) {
+        markDirty();
+        if (!super.remove(key, value)) {
+            return false;
+        }
         callPreDestroy(key, value);
-        return super.remove(key, value);
+        return true;
     }
 
     @Override
     public Object replace(String key, Object value) {
-        return callPreDestroy(key, super.replace(key, value));
+        markDirty();
+        return displaced(key, super.replace(key, value), value);
     }
 
     @Override
     public boolean replace(String key, Object oldValue, Object newValue) {
+        markDirty();
         if (!super.replace(key, oldValue, newValue)) {
             return false;
         }
-        callPreDestroy(key, oldValue);
+        displaced(key, oldValue, newValue);
         return true;
     }
 
     @Override
     public void clear() {
+        markDirty();
+        for (String key : keySet()) {
+            callPreDestroy(key, get(key));
+        }
+        super.clear();
+    }
+
+    /**
+     * Clear the scope, as per {@link #clear()}, measuring the time spent in the preDestroy callbacks of its values.
+     *
+     * @return time spent in preDestroy callbacks, in nanoseconds
+     */
+    public long clearMeasured() {
+        markDirty();
+        long preDestroyNanos = 0;
         for (String key : keySet()) {
+            long start = System.nanoTime();
             callPreDestroy(key, get(key));
+            preDestroyNanos += System.nanoTime() - start;
         }
         super.clear();
+        return preDestroyNanos;
+    }
+
+    /**
+     * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        // A change made while writing leaves the scope dirty, as the count is read beforehand
+        int currentModCount = this.modCount;
+        out.writeObject(this.uniqRequestScopeId);
+        out.writeObject(this.portletName);
+        out.writeObject(this.sessionId);
+        out.writeObject(this.viewId);
+        out.writeObject(this.portletMode);
+        out.writeLong(this.creationTime);
+        out.writeLong(this.lastAccessedTime);
+
+        List<String> excluded = this.excludedEntries;
+        if (null == excluded) {
+            out.writeInt(-1);
+        } else {
+            String[] names = excluded.toArray(new String[excluded.size()]);
+            out.writeInt(names.length);
+            for (String name : names) {
+                out.writeObject(name);
+            }
+        }
+
+        for (Map.Entry<String, Object> entry : entrySet()) {
+            out.writeObject(entry.getKey());
+            out.writeObject(entry.getValue());
+        }
+        out.writeObject(null);
+        this.writtenModCount = currentModCount;
+    }
+
+    /**
+     * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        this.uniqRequestScopeId = (String) in.readObject();
+        this.portletName = (String) in.readObject();
+        this.sessionId = (String) in.readObject();
+        this.viewId = (String) in.readObject();
+        this.portletMode = (String) in.readObject();
+        this.creationTime = in.readLong();
+        this.lastAccessedTime = in.readLong();
+
+        int excludedCount = in.readInt();
+        if (excludedCount >= 0) {
+            this.excludedEntries = new Vector<String>(excludedCount);
+            for (int i = 0; i < excludedCount; i++) {
+                this.excludedEntries.add((String) in.readObject());
+            }
+        }
+
+        // Entries were checked against the excludes when they were put
+        String key;
+        while (null != (key = (String) in.readObject())) {
+            super.put(key, in.readObject());
+        }
+        this.writtenModCount = this.modCount;
+    }
+
+    /**
+     * Call preDestroy on a value that has been replaced in the scope, unless it was replaced by itself.
+     *
+     * @return the replaced value
+     */
+    private Object displaced(String key, Object old, Object value) {
+        if (old != value) {
+            callPreDestroy(key, old);
+        }
+        return old;
     }
 
     /**
@@ -207,31 +487,13 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
      */
     private Object callPreDestroy(String key, Object obj) {
         if (null != obj) {
-            for (Method method : obj.getClass().getMethods()) {
-                // Check for Method with BridgePreDestroy annotation
-                if (method.isAnnotationPresent(BridgePreDestroy.class)) {
-                    // Check for Public method only
-                    if (!Modifier.isPublic(method.getModifiers())) {
-                        continue;
-                    }
-
-                    // Check for no arg method
-                    if (method.getParameterTypes().length > 0) {
-                        continue;
-                    }
-
-                    // Check for void return type
-                    if (method.getReturnType() != Void.class) {
-                        continue;
-                    }
-
-                    try {
-                        // Invoke pre destroy method
-                        method.invoke(obj, (Object) null);
-                    } catch (Exception e) {
-                        logger.log(Level.ERROR, "Error invoking @BridgePreDestroy method: " + method.getName() + " on: "
-                            + obj.getClass().getName(), e);
-                    }
+            for (Method method : BridgePreDestroyMetadata.forClass(obj.getClass()).getPreDestroyMethods()) {
+                try {
+                    // Invoke pre destroy method
+                    method.invoke(obj);
+                } catch (Exception e) {
+                    logger.log(Level.ERROR, "Error invoking @BridgePreDestroy method: " + method.getName() + " on: "
+                        + obj.getClass().getName(), e);
                 }
             }
 
@@ -243,4 +505,13 @@ public class BridgeRequestScopeImpl extends ConcurrentHashMap<String, Object> im
         return obj;
     }
 
+    private static final class SizeEstimate {
+        final int modCount;
+        final long bytes;
+
+        SizeEstimate(int modCount, long bytes) {
+            this.modCount = modCount;
+            this.bytes = bytes;
+        }
+    }
 }
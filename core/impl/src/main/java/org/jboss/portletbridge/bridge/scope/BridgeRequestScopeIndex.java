@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ids of the scopes held by a {@link BridgeRequestScopeStore}, by session and by portlet, so that the scopes of a
+ * session or portlet are found without visiting every scope of the store. Safe for concurrent use.
+ *
+ * @author kenfinnigan
+ */
+final class BridgeRequestScopeIndex {
+
+    private final Map<String, Set<String>> scopeIdsBySession = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> scopeIdsByPortlet = new HashMap<String, Set<String>>();
+
+    synchronized void add(String id, String sessionId, String portletName) {
+        addToIndex(scopeIdsBySession, sessionId, id);
+        addToIndex(scopeIdsByPortlet, portletName, id);
+    }
+
+    synchronized void remove(String id, String sessionId, String portletName) {
+        removeFromIndex(scopeIdsBySession, sessionId, id);
+        removeFromIndex(scopeIdsByPortlet, portletName, id);
+    }
+
+    /**
+     * Detach the ids of the scopes of a session. The ids remain indexed by portlet until they are removed.
+     *
+     * @return ids of the scopes of the session
+     */
+    List<String> removeSession(String sessionId) {
+        return detach(scopeIdsBySession, sessionId);
+    }
+
+    /**
+     * Detach the ids of the scopes of a portlet. The ids remain indexed by session until they are removed.
+     *
+     * @return ids of the scopes of the portlet
+     */
+    List<String> removePortlet(String portletName) {
+        return detach(scopeIdsByPortlet, portletName);
+    }
+
+    private List<String> detach(Map<String, Set<String>> index, String key) {
+        Set<String> ids;
+        synchronized (this) {
+            ids = index.remove(key);
+        }
+        if (null == ids) {
+            return new ArrayList<String>(0);
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    private static void addToIndex(Map<String, Set<String>> index, String key, String id) {
+        if (null == key) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (null == ids) {
+            ids = new HashSet<String>(4);
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String id) {
+        if (null == key) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (null != ids) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+
+/**
+ * Identifies the {@link BridgeRequestScope} of a portlet, session, view and portlet mode, without concatenating them
+ * into a String on every lookup.
+ *
+ * @author kenfinnigan
+ */
+final class BridgeRequestScopeKey implements Serializable {
+
+    private static final long serialVersionUID = 2964183052436528410L;
+
+    private final String portletName;
+    private final String sessionId;
+    private final String viewId;
+    private final String portletMode;
+    private final int hash;
+
+    BridgeRequestScopeKey(String portletName, String sessionId, String viewId, String portletMode) {
+        this.portletName = portletName;
+        this.sessionId = sessionId;
+        this.viewId = viewId;
+        this.portletMode = portletMode;
+
+        int h = hashCode(portletName);
+        h = 31 * h + hashCode(sessionId);
+        h = 31 * h + hashCode(viewId);
+        h = 31 * h + hashCode(portletMode);
+        this.hash = h;
+    }
+
+    static BridgeRequestScopeKey forScope(BridgeRequestScope scope) {
+        return new BridgeRequestScopeKey(scope.getPortletName(), scope.getSessionId(), scope.getViewId(),
+            scope.getPortletMode());
+    }
+
+    /**
+     * Write the key without its class descriptor, for the compact form of {@link BridgeRequestScopeManagerImpl}.
+     */
+    void writeTo(ObjectOutput out) throws IOException {
+        out.writeObject(portletName);
+        out.writeObject(sessionId);
+        out.writeObject(viewId);
+        out.writeObject(portletMode);
+    }
+
+    static BridgeRequestScopeKey readFrom(ObjectInput in) throws IOException, ClassNotFoundException {
+        return new BridgeRequestScopeKey((String) in.readObject(), (String) in.readObject(), (String) in.readObject(),
+            (String) in.readObject());
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BridgeRequestScopeKey)) {
+            return false;
+        }
+        BridgeRequestScopeKey other = (BridgeRequestScopeKey) obj;
+        return hash == other.hash && equals(viewId, other.viewId) && equals(portletMode, other.portletMode)
+            && equals(portletName, other.portletName) && equals(sessionId, other.sessionId);
+    }
+
+    @Override
+    public String toString() {
+        return BridgeRequestScopeUtil.generateBridgeRequestScopeIdPrefix(portletName, sessionId, viewId, portletMode);
+    }
+
+    private static int hashCode(String value) {
+        return null != value ? value.hashCode() : 0;
+    }
+
+    private static boolean equals(String value, String other) {
+        return value == other || (null != value && value.equals(other));
+    }
+}
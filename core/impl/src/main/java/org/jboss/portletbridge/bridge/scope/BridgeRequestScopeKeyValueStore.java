@@ -0,0 +1,467 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+import org.jboss.portletbridge.util.ContextObjectInputStream;
+
+/**
+ * {@link BridgeRequestScopeStore} that keeps scopes outside of the session, in a {@link KeyValueCache} shared by the
+ * nodes of a cluster. Only the ids of the scopes are serialized with the manager, so replicating the session no longer
+ * ships every scope. Each scope is written to the cache when it is stored, and again when it is updated after having
+ * changed.
+ * <p>
+ * Scopes in use are also held in memory, within the capacity of the manager, so that a request always works on the same
+ * instance. A scope that is not in memory, for instance after failover to another node, is read from the cache. Scopes
+ * are serialized, so content that is not serializable, such as a retained component tree, is only available on the
+ * node that stored it. Use with <code>org.jboss.portletbridge.BRIDGE_SCOPE_VIEW_STATE_SAVED</code>.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeKeyValueStore implements BridgeRequestScopeStore, Serializable {
+
+    private static final long serialVersionUID = 3146811294616016921L;
+
+    private static final BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(BridgeRequestScopeKeyValueStore.class
+        .getName());
+
+    private final ConcurrentMap<String, ScopeEntry> entries = new ConcurrentHashMap<String, ScopeEntry>();
+
+    // Secondary indexes of scope ids, rebuilt from the entries on deserialization
+    private transient BridgeRequestScopeIndex index;
+    private transient volatile KeyValueCache cache;
+    private transient volatile BridgeRequestScopeCache liveScopes;
+    private transient volatile EvictionListener listener;
+    private transient volatile boolean serializationWarned;
+
+    public BridgeRequestScopeKeyValueStore() {
+        this.index = new BridgeRequestScopeIndex();
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#attach(javax.portlet.PortletContext,
+     *      org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore.EvictionListener)
+     */
+    public synchronized void attach(PortletContext portletContext, EvictionListener listener) {
+        this.listener = listener;
+        this.cache = getKeyValueCache(portletContext);
+
+        if (null == liveScopes) {
+            BridgeRequestScopeCache scopes = new BridgeRequestScopeCache(
+                BridgeRequestScopeManagerImpl.getCacheMax(portletContext));
+            scopes.setEvictionListener(new BridgeRequestScopeCache.EvictionListener() {
+                public void scopeEvicted(String key, BridgeRequestScope scope) {
+                    ScopeEntry entry = removeEntry(key);
+                    if (null != entry) {
+                        cache.remove(entry.key);
+                    }
+                    EvictionListener evictionListener = BridgeRequestScopeKeyValueStore.this.listener;
+                    if (null != evictionListener) {
+                        evictionListener.scopeEvicted(scope);
+                    } else {
+                        // As per JSR-329 6.8.2, clear() will call preDestroy() on Objects in Scope
+                        scope.clear();
+                    }
+                }
+            });
+            liveScopes = scopes;
+        }
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#get(java.lang.String)
+     */
+    public BridgeRequestScope get(String id) {
+        BridgeRequestScope scope = liveScopes.get(id);
+        if (null != scope) {
+            return scope;
+        }
+
+        ScopeEntry entry = entries.get(id);
+        if (null == entry) {
+            return null;
+        }
+        // Read under the lock of the entry, so that it cannot expire while being read back
+        synchronized (entry) {
+            if (entries.get(id) != entry) {
+                // Removed since looked up
+                return null;
+            }
+            scope = liveScopes.get(id);
+            if (null != scope) {
+                // Read by another request since looked up
+                return scope;
+            }
+            scope = readScope(entry);
+            if (null == scope) {
+                // Expired or evicted by the cache
+                if (entries.remove(id, entry)) {
+                    index.remove(id, entry.sessionId, entry.portletName);
+                }
+                return null;
+            }
+            entry.lastAccessedTime = System.currentTimeMillis();
+
+            BridgeRequestScope existing = liveScopes.putIfAbsent(id, scope);
+            if (null != existing) {
+                return existing;
+            }
+        }
+        if (entries.get(id) != entry) {
+            // Removed while being read, so it must not be held in memory
+            liveScopes.remove(id, scope);
+            return null;
+        }
+        return scope;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#put(org.jboss.portletbridge.bridge.scope.BridgeRequestScope)
+     */
+    public void put(BridgeRequestScope scope) {
+        String id = scope.getId();
+        ScopeEntry entry = entries.get(id);
+        boolean stored = null != entry;
+        if (!stored) {
+            entry = new ScopeEntry(scope);
+            ScopeEntry existing = entries.putIfAbsent(id, entry);
+            if (null != existing) {
+                entry = existing;
+            } else {
+                index.add(id, entry.sessionId, entry.portletName);
+            }
+        }
+        entry.lastAccessedTime = System.currentTimeMillis();
+
+        if (liveScopes.get(id) != scope) {
+            liveScopes.put(id, scope);
+        }
+        // Skipped if unchanged since it was last written or read
+        if (!stored || !(scope instanceof BridgeRequestScopeImpl) || ((BridgeRequestScopeImpl) scope).isDirty()) {
+            writeScope(entry, scope);
+        }
+    }
+
+    /**
+     * A scope that is not held in memory is only read back from the cache, to be cleared, if it held values with
+     * preDestroy methods when it was last written. Otherwise it is dropped from the cache unread, and an empty scope
+     * with its identity is returned in its place.
+     *
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#remove(java.lang.String)
+     */
+    public BridgeRequestScope remove(String id) {
+        BridgeRequestScope scope = liveScopes.remove(id);
+        ScopeEntry entry = removeEntry(id);
+        if (null != entry) {
+            if (null == scope && !entry.withoutPreDestroy) {
+                // Read so that it can be cleared, as per JSR-329 6.8.2
+                scope = readScope(entry);
+            }
+            if (null == scope) {
+                scope = entry.toEmptyScope(id);
+            }
+            cache.remove(entry.key);
+        }
+        return scope;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#remove(org.jboss.portletbridge.bridge.scope.BridgeRequestScope)
+     */
+    public boolean remove(BridgeRequestScope scope) {
+        String id = scope.getId();
+        if (!liveScopes.remove(id, scope)) {
+            return false;
+        }
+        ScopeEntry entry = removeEntry(id);
+        if (null != entry) {
+            cache.remove(entry.key);
+        }
+        return true;
+    }
+
+    /**
+     * As per {@link #remove(String)}, scopes that are not held in memory are only read back if they need clearing.
+     *
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeBySession(java.lang.String)
+     */
+    public List<BridgeRequestScope> removeBySession(String sessionId) {
+        return removeAll(index.removeSession(sessionId));
+    }
+
+    /**
+     * As per {@link #remove(String)}, scopes that are not held in memory are only read back if they need clearing.
+     *
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeByPortlet(java.lang.String)
+     */
+    public List<BridgeRequestScope> removeByPortlet(String portletName) {
+        return removeAll(index.removePortlet(portletName));
+    }
+
+    /**
+     * Scopes held in memory expire as per {@link BridgeRequestScopeImpl#expire(long, long, long)}, others by the time
+     * they were created and last stored or read on this node. Each entry is checked and removed under its lock, so
+     * that it cannot be read back by a request at the same time. Like the expiry of the default store, every entry is
+     * visited, on the thread of the {@link BridgeRequestScopeReaper}. As per {@link #remove(String)}, expired scopes
+     * that are not held in memory are only read back if they need clearing.
+     *
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeExpired(long, long, long)
+     */
+    public List<BridgeRequestScope> removeExpired(long now, long idleTimeout, long maxAge) {
+        List<BridgeRequestScope> removed = new ArrayList<BridgeRequestScope>(0);
+        for (Map.Entry<String, ScopeEntry> entry : entries.entrySet()) {
+            String id = entry.getKey();
+            ScopeEntry scopeEntry = entry.getValue();
+            BridgeRequestScope expiredScope = null;
+            synchronized (scopeEntry) {
+                BridgeRequestScope scope = liveScopes.get(id);
+                if (scope instanceof BridgeRequestScopeImpl) {
+                    // Marked as expired first, so that a request retrieving it concurrently does not use it
+                    if (((BridgeRequestScopeImpl) scope).expire(now, idleTimeout, maxAge) && remove(scope)) {
+                        expiredScope = scope;
+                    }
+                } else if (scopeEntry.isExpired(now, idleTimeout, maxAge) && entries.get(id) == scopeEntry) {
+                    expiredScope = remove(id);
+                }
+            }
+            if (null != expiredScope) {
+                removed.add(expiredScope);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#values()
+     */
+    public Collection<BridgeRequestScope> values() {
+        return liveScopes.values();
+    }
+
+    private List<BridgeRequestScope> removeAll(List<String> ids) {
+        List<BridgeRequestScope> removed = new ArrayList<BridgeRequestScope>(ids.size());
+        for (String id : ids) {
+            BridgeRequestScope scope = remove(id);
+            if (null != scope) {
+                removed.add(scope);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Forget a scope. The caller drops it from the cache once it no longer needs to be read.
+     *
+     * @return the entry of the scope, or null if it was not stored
+     */
+    private ScopeEntry removeEntry(String id) {
+        ScopeEntry entry = entries.remove(id);
+        if (null != entry) {
+            index.remove(id, entry.sessionId, entry.portletName);
+        }
+        return entry;
+    }
+
+    private BridgeRequestScope readScope(ScopeEntry entry) {
+        byte[] value = cache.get(entry.key);
+        if (null == value) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(value));
+            try {
+                return (BridgeRequestScope) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read Bridge Request Scope " + entry.key + " from cache", e);
+        } catch (ClassNotFoundException e) {
+            logger.log(Level.WARNING, "Unable to read Bridge Request Scope " + entry.key + " from cache", e);
+        }
+        return null;
+    }
+
+    private void writeScope(ScopeEntry entry, BridgeRequestScope scope) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            try {
+                out.writeObject(scope);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Remains available from memory on this node only
+            cache.remove(entry.key);
+            if (!serializationWarned) {
+                serializationWarned = true;
+                logger.log(Level.WARNING, "Unable to write Bridge Request Scope to cache, it will not be available "
+                    + "on other nodes. Further failures are not logged", e);
+            }
+            return;
+        }
+        cache.put(entry.key, bytes.toByteArray());
+        entry.withoutPreDestroy = !hasPreDestroy(scope);
+    }
+
+    /**
+     * Whether clearing the scope may call a preDestroy method: one annotated with BridgePreDestroy, or one called
+     * through the JSF InjectionProvider should a value with annotated members be a managed bean. Classes of the JDK are
+     * never managed beans.
+     */
+    private static boolean hasPreDestroy(BridgeRequestScope scope) {
+        for (Object value : scope.values()) {
+            if (null == value) {
+                continue;
+            }
+            Class<?> type = value.getClass();
+            BridgePreDestroyMetadata metadata = BridgePreDestroyMetadata.forClass(type);
+            if (metadata.hasPreDestroyMethods() || (metadata.hasAnnotatedMembers() && null != type.getClassLoader())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieve the {@link KeyValueCache} registered for the application, or create the one named by the init parameter.
+     *
+     * @throws IllegalStateException
+     *             if there is none, or the one named cannot be created
+     */
+    static KeyValueCache getKeyValueCache(PortletContext portletContext) {
+        Object cache = portletContext.getAttribute(KeyValueCache.CACHE_ATTRIBUTE);
+        if (cache instanceof KeyValueCache) {
+            return (KeyValueCache) cache;
+        }
+
+        String className = portletContext.getInitParameter(PortletBridgeConstants.REQUEST_SCOPE_KEY_VALUE_CACHE);
+        if (null == className) {
+            throw new IllegalStateException("No " + KeyValueCache.class.getName() + " registered for the application");
+        }
+
+        synchronized (KeyValueCache.class) {
+            cache = portletContext.getAttribute(KeyValueCache.CACHE_ATTRIBUTE);
+            if (!(cache instanceof KeyValueCache)) {
+                cache = createKeyValueCache(className.trim());
+                portletContext.setAttribute(KeyValueCache.CACHE_ATTRIBUTE, cache);
+            }
+        }
+        return (KeyValueCache) cache;
+    }
+
+    private static KeyValueCache createKeyValueCache(String className) {
+        String invalid = "portlet.xml contains invalid value for "
+            + PortletBridgeConstants.REQUEST_SCOPE_KEY_VALUE_CACHE + ", " + className;
+        Class<?> type;
+        try {
+            type = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(invalid + " was not found", e);
+        }
+        if (!KeyValueCache.class.isAssignableFrom(type)) {
+            throw new IllegalStateException(invalid + " does not implement " + KeyValueCache.class.getName());
+        }
+
+        try {
+            return (KeyValueCache) type.getDeclaredConstructor().newInstance();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(invalid + " has no no-arg constructor", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(invalid + " could not be created", e.getCause());
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(invalid + " is not a concrete class", e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(invalid + " has no public no-arg constructor", e);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.index = new BridgeRequestScopeIndex();
+        for (Map.Entry<String, ScopeEntry> entry : entries.entrySet()) {
+            index.add(entry.getKey(), entry.getValue().sessionId, entry.getValue().portletName);
+        }
+    }
+
+    /**
+     * Records where a scope is held in the cache, and which session and portlet it belongs to.
+     */
+    private static final class ScopeEntry implements Serializable {
+
+        private static final long serialVersionUID = -9009982426481074283L;
+
+        final String key;
+        final String sessionId;
+        final String portletName;
+        final String viewId;
+        final String portletMode;
+        final long creationTime;
+        volatile long lastAccessedTime;
+        // False, so that the scope is read back to be cleared, for entries serialized before this was recorded
+        volatile boolean withoutPreDestroy;
+
+        ScopeEntry(BridgeRequestScope scope) {
+            this.key = scope.getSessionId() + '/' + scope.getId();
+            this.sessionId = scope.getSessionId();
+            this.portletName = scope.getPortletName();
+            this.viewId = scope.getViewId();
+            this.portletMode = scope.getPortletMode();
+            this.creationTime = System.currentTimeMillis();
+            this.lastAccessedTime = creationTime;
+        }
+
+        boolean isExpired(long now, long idleTimeout, long maxAge) {
+            return (idleTimeout > 0 && now - lastAccessedTime > idleTimeout)
+                || (maxAge > 0 && now - creationTime > maxAge);
+        }
+
+        /**
+         * @return an empty scope with the identity of the one stored under this entry
+         */
+        BridgeRequestScope toEmptyScope(String id) {
+            return new BridgeRequestScopeImpl(id, portletName, sessionId, viewId, portletMode, creationTime,
+                lastAccessedTime);
+        }
+    }
+}
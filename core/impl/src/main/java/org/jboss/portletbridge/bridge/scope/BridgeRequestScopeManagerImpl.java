@@ -21,16 +21,19 @@
  */
 package org.jboss.portletbridge.bridge.scope;
 
-import java.io.Serializable;
-import java.util.Collections;
-import java.util.HashMap;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.portlet.PortletContext;
 import javax.portlet.PortletSession;
 import javax.portlet.faces.Bridge;
 
+import org.jboss.portletbridge.PortletBridgeConstants;
 import org.jboss.portletbridge.bridge.config.BridgeConfig;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
 import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
@@ -42,10 +45,18 @@ import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
 /**
  * Manages a set of BridgeRequestScopes based on its policies. Clients interact with the manager to create and remove
  * BridgeRequestScopes, and to lookup one by its key.
+ * <p>
+ * The manager is held in the session, and is {@link Externalizable} so that replicating the session writes only its
+ * settings, the scope ids by key and its {@link BridgeRequestScopeStore}. The default store is written with every scope
+ * it holds. {@link BridgeRequestScopeKeyValueStore} is written as the ids of its scopes, and writes back to its cache
+ * only the scopes that changed.
+ * </p>
  *
  * @author kenfinnigan
  */
-public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager, Serializable {
+public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager, Externalizable {
+
+    private static final long serialVersionUID = -2929330088246271906L;
 
     private static final int DEFAULT_MAX_MANAGED_REQUEST_SCOPES = 100;
 
@@ -54,14 +65,46 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
 
     private transient BridgeRequestScopeFactory scopeFactory;
 
-    private Map<String, BridgeRequestScope> bridgeRequestScopeCache;
-    private Map<String, String> scopeIdMap;
+    private BridgeRequestScopeStore store;
+    private ConcurrentMap<BridgeRequestScopeKey, String> scopeIdMap;
+
+    // Expiry of scopes in milliseconds, 0 when disabled
+    private long scopeIdleTimeout;
+    private long scopeMaxAge;
+    private transient volatile BridgeRequestScopeRegistry registry;
+    private transient volatile BridgeRequestScopeTeardown teardown;
+    private transient volatile BridgeRequestScopeMetrics metrics;
+    // Set once attached, while holding the attach lock
+    private transient volatile boolean attached;
+    private final transient Object attachLock = new Object();
+    // Increments are not atomic, but a lost increment still moves the count on from what a caller last saw
+    private transient volatile int modCount;
+
+    /**
+     * Required by {@link Externalizable}, not to be used otherwise.
+     */
+    public BridgeRequestScopeManagerImpl() {
+    }
 
     public BridgeRequestScopeManagerImpl(BridgeConfig bridgeConfig) {
+        this(bridgeConfig, null);
+    }
+
+    /**
+     * @param bridgeConfig
+     * @param store
+     *            to hold scopes in, or null for the default {@link BridgeRequestScopeMemoryStore}
+     */
+    public BridgeRequestScopeManagerImpl(BridgeConfig bridgeConfig, BridgeRequestScopeStore store) {
+        PortletContext portletContext = bridgeConfig.getPortletConfig().getPortletContext();
         this.scopeFactory = retrieveScopeFactory();
-        this.bridgeRequestScopeCache = createBridgeRequestScopeCache(bridgeConfig.getPortletConfig()
-            .getPortletContext());
-        this.scopeIdMap = new HashMap<String, String>(getCacheMax(bridgeConfig.getPortletConfig().getPortletContext()));
+        this.store = null != store ? store : new BridgeRequestScopeMemoryStore(
+            createBridgeRequestScopeCache(portletContext));
+        this.scopeIdMap = new ConcurrentHashMap<BridgeRequestScopeKey, String>(getCacheMax(portletContext));
+        this.scopeIdleTimeout = getTimeout(portletContext, PortletBridgeConstants.REQUEST_SCOPE_IDLE_TIMEOUT);
+        this.scopeMaxAge = getTimeout(portletContext, PortletBridgeConstants.REQUEST_SCOPE_MAX_AGE);
+        attach(portletContext);
+        attached = true;
     }
 
     /**
@@ -70,11 +113,21 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      */
     public BridgeRequestScope createRequestScope(BridgeContext ctx, String portletName, String sessionId,
         String viewId, String portletMode) {
+        ensureAttached(ctx);
+
         BridgeRequestScope scope = getScopeFactory().getBridgeRequestScope(portletName, sessionId, viewId, portletMode);
-        this.bridgeRequestScopeCache.put(scope.getId(), scope);
-        this.scopeIdMap.put(
-            BridgeRequestScopeUtil.generateBridgeRequestScopeIdPrefix(portletName, sessionId, viewId, portletMode),
-            scope.getId());
+        this.store.put(scope);
+        this.scopeIdMap.put(new BridgeRequestScopeKey(portletName, sessionId, viewId, portletMode), scope.getId());
+        modCount++;
+
+        BridgeRequestScopeRegistry scopeRegistry = this.registry;
+        if (null != scopeRegistry) {
+            scopeRegistry.scopeAdded(this, scope);
+        }
+        BridgeRequestScopeMetrics scopeMetrics = this.metrics;
+        if (null != scopeMetrics) {
+            scopeMetrics.scopeCreated();
+        }
         return scope;
     }
 
@@ -93,7 +146,35 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      *      java.lang.String)
      */
     public BridgeRequestScope getRequestScopeById(BridgeContext ctx, String id) {
-        return this.bridgeRequestScopeCache.get(id);
+        ensureAttached(ctx);
+        return retrieved(this.store.get(id));
+    }
+
+    /**
+     * Record another retrieval of a scope previously returned by this manager for the current request, without looking
+     * it up again.
+     *
+     * @param scope
+     *            scope retrieved earlier in the request
+     * @return the scope, or null if it has expired since
+     */
+    public BridgeRequestScope touchRequestScope(BridgeRequestScope scope) {
+        return retrieved(scope);
+    }
+
+    private BridgeRequestScope retrieved(BridgeRequestScope scope) {
+        if (scope instanceof BridgeRequestScopeImpl) {
+            BridgeRequestScopeImpl scopeImpl = (BridgeRequestScopeImpl) scope;
+            if (!scopeImpl.touchUnlessExpired(System.currentTimeMillis(), scopeIdleTimeout, scopeMaxAge)) {
+                // Left for the reaper to clear
+                scope = null;
+            }
+        }
+        BridgeRequestScopeMetrics scopeMetrics = this.metrics;
+        if (null != scopeMetrics) {
+            scopeMetrics.scopeRetrieved(null != scope);
+        }
+        return scope;
     }
 
     /**
@@ -102,14 +183,13 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      */
     public BridgeRequestScope getRequestScope(BridgeContext ctx, String portletName, String sessionId, String viewId,
         String portletMode) {
-        String idPrefix = BridgeRequestScopeUtil.generateBridgeRequestScopeIdPrefix(portletName, sessionId, viewId,
-            portletMode);
-        String scopeKey = this.scopeIdMap.get(idPrefix);
+        BridgeRequestScopeKey key = new BridgeRequestScopeKey(portletName, sessionId, viewId, portletMode);
+        String scopeId = this.scopeIdMap.get(key);
         BridgeRequestScope scope = null;
-        if (null != scopeKey) {
-            scope = getRequestScopeById(ctx, scopeKey);
-            if (null == scope) {
-                this.scopeIdMap.remove(idPrefix);
+        if (null != scopeId) {
+            scope = getRequestScopeById(ctx, scopeId);
+            if (null == scope && this.scopeIdMap.remove(key, scopeId)) {
+                modCount++;
             }
         }
         return scope;
@@ -147,8 +227,13 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      *      java.lang.String)
      */
     public BridgeRequestScope removeRequestScopeById(BridgeContext ctx, String id) {
-        BridgeRequestScope scope = this.bridgeRequestScopeCache.remove(id);
-        scope.clear();
+        ensureAttached(ctx);
+        BridgeRequestScope scope = this.store.remove(id);
+        if (null != scope) {
+            scopeRemoved(scope);
+            recordRemoval();
+            destroyScope(scope);
+        }
         return scope;
     }
 
@@ -157,7 +242,7 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      *      org.jboss.portletbridge.bridge.scope.BridgeRequestScope)
      */
     public BridgeRequestScope removeRequestScope(BridgeContext ctx, BridgeRequestScope scope) {
-        return removeRequestScope(ctx, scope.getId());
+        return removeRequestScopeById(ctx, scope.getId());
     }
 
     /**
@@ -166,14 +251,13 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      */
     public BridgeRequestScope removeRequestScope(BridgeContext ctx, String portletName, String sessionId,
         String viewId, String portletMode) {
-        String idPrefix = BridgeRequestScopeUtil.generateBridgeRequestScopeIdPrefix(portletName, sessionId, viewId,
-            portletMode);
-        String scopeKey = this.scopeIdMap.get(idPrefix);
+        BridgeRequestScopeKey key = new BridgeRequestScopeKey(portletName, sessionId, viewId, portletMode);
+        String scopeId = this.scopeIdMap.get(key);
         BridgeRequestScope scope = null;
-        if (null != scopeKey) {
-            scope = removeRequestScopeById(ctx, scopeKey);
+        if (null != scopeId) {
+            scope = removeRequestScopeById(ctx, scopeId);
             if (null == scope) {
-                this.scopeIdMap.remove(idPrefix);
+                this.scopeIdMap.remove(key, scopeId);
             }
         }
         return scope;
@@ -202,16 +286,11 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      */
     public void removeRequestScopesByPortlet(BridgeContext ctx, String portletName) {
         if (null != portletName) {
-            Set<Map.Entry<String, BridgeRequestScope>> entries = this.bridgeRequestScopeCache.entrySet();
-            if (null != entries) {
-                synchronized (this.bridgeRequestScopeCache) {
-                    for (Map.Entry<String, BridgeRequestScope> entry : entries) {
-                        BridgeRequestScope scope = entry.getValue();
-                        if (portletName.equals(scope.getPortletName())) {
-                            this.removeRequestScopeById(ctx, entry.getKey());
-                        }
-                    }
-                }
+            ensureAttached(ctx);
+            for (BridgeRequestScope scope : this.store.removeByPortlet(portletName)) {
+                scopeRemoved(scope);
+                recordRemoval();
+                destroyScope(scope);
             }
         }
     }
@@ -229,16 +308,11 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      */
     public void removeRequestScopesBySession(BridgeContext ctx, String sessionId) {
         if (null != sessionId) {
-            Set<Map.Entry<String, BridgeRequestScope>> entries = this.bridgeRequestScopeCache.entrySet();
-            if (null != entries) {
-                synchronized (this.bridgeRequestScopeCache) {
-                    for (Map.Entry<String, BridgeRequestScope> entry : entries) {
-                        BridgeRequestScope scope = entry.getValue();
-                        if (sessionId.equals(scope.getSessionId())) {
-                            this.removeRequestScopeById(ctx, entry.getKey());
-                        }
-                    }
-                }
+            ensureAttached(ctx);
+            for (BridgeRequestScope scope : this.store.removeBySession(sessionId)) {
+                scopeRemoved(scope);
+                recordRemoval();
+                destroyScope(scope);
             }
         }
     }
@@ -253,8 +327,200 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
         }
     }
 
+    /**
+     * Changes whenever a scope is added or removed, so that a caller holding onto a scope it looked up can tell whether
+     * the lookup needs to be repeated.
+     *
+     * @return modification count of the scopes held by the manager
+     */
+    public int getModificationCount() {
+        return modCount;
+    }
+
+    /**
+     * Remove and clear the scopes that have expired. Called by the {@link BridgeRequestScopeReaper} outside of any
+     * request.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param reaper
+     *            to record the removed scopes with
+     */
+    void reapExpiredScopes(long now, BridgeRequestScopeReaper reaper) {
+        for (BridgeRequestScope scope : this.store.removeExpired(now, scopeIdleTimeout, scopeMaxAge)) {
+            scopeRemoved(scope);
+            BridgeRequestScopeMetrics scopeMetrics = this.metrics;
+            if (null != scopeMetrics) {
+                scopeMetrics.scopeExpired();
+            }
+            // Cached by the scope unless it has changed since last estimated
+            long bytes = BridgeRequestScopeSizeEstimator.estimate(scope);
+            BridgeRequestScopeMetrics.clear(scope, scopeMetrics);
+            reaper.scopeReaped(bytes);
+        }
+    }
+
+    /**
+     * Remove and clear a scope evicted by the {@link BridgeRequestScopeRegistry} to keep the application within its
+     * limits.
+     *
+     * @param scope
+     *            to evict
+     */
+    void evictScope(BridgeRequestScope scope) {
+        if (this.store.remove(scope)) {
+            scopeRemoved(scope);
+            BridgeRequestScopeMetrics scopeMetrics = this.metrics;
+            if (null != scopeMetrics) {
+                scopeMetrics.scopeLimitEvicted();
+            }
+            destroyScope(scope);
+        }
+    }
+
+    /**
+     * Write back a scope whose content has been updated during the request, for stores that do not hold scopes by
+     * reference.
+     *
+     * @param ctx
+     * @param scope
+     *            that has been updated
+     */
+    public void updateRequestScope(BridgeContext ctx, BridgeRequestScope scope) {
+        ensureAttached(ctx);
+        this.store.put(scope);
+    }
+
+    /**
+     * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeLong(this.scopeIdleTimeout);
+        out.writeLong(this.scopeMaxAge);
+        out.writeObject(this.store);
+
+        for (Map.Entry<BridgeRequestScopeKey, String> entry : this.scopeIdMap.entrySet()) {
+            out.writeBoolean(true);
+            entry.getKey().writeTo(out);
+            out.writeObject(entry.getValue());
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+     */
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        this.scopeIdleTimeout = in.readLong();
+        this.scopeMaxAge = in.readLong();
+        this.store = (BridgeRequestScopeStore) in.readObject();
+
+        this.scopeIdMap = new ConcurrentHashMap<BridgeRequestScopeKey, String>();
+        while (in.readBoolean()) {
+            BridgeRequestScopeKey key = BridgeRequestScopeKey.readFrom(in);
+            this.scopeIdMap.put(key, (String) in.readObject());
+        }
+    }
+
     protected Map<String, BridgeRequestScope> createBridgeRequestScopeCache(PortletContext portletContext) {
-        return Collections.synchronizedMap(new BridgeRequestScopeCache(getCacheMax(portletContext)));
+        return new BridgeRequestScopeCache(getCacheMax(portletContext));
+    }
+
+    /**
+     * Register with the application wide {@link BridgeRequestScopeTeardown}, {@link BridgeRequestScopeMetrics},
+     * {@link BridgeRequestScopeReaper} and {@link BridgeRequestScopeRegistry}, if enabled.
+     */
+    private void attach(PortletContext portletContext) {
+        this.store.attach(portletContext, new BridgeRequestScopeStore.EvictionListener() {
+            public void scopeEvicted(BridgeRequestScope scope) {
+                scopeRemoved(scope);
+                BridgeRequestScopeMetrics scopeMetrics = metrics;
+                if (null != scopeMetrics) {
+                    scopeMetrics.scopeEvicted();
+                }
+                destroyScope(scope);
+            }
+        });
+        this.teardown = BridgeRequestScopeTeardown.getInstance(portletContext);
+        this.metrics = BridgeRequestScopeMetrics.getInstance(portletContext);
+
+        boolean expires = scopeIdleTimeout > 0 || scopeMaxAge > 0;
+        BridgeRequestScopeRegistry scopeRegistry = BridgeRequestScopeRegistry.getInstance(portletContext);
+        if (!expires && null == scopeRegistry) {
+            return;
+        }
+        if (this.store instanceof BridgeRequestScopeMemoryStore
+            && !((BridgeRequestScopeMemoryStore) this.store).isConcurrent()) {
+            logger.log(Level.WARNING,
+                "Bridge Request Scope expiry and limits require a concurrent scope cache, they will not be applied");
+            return;
+        }
+
+        if (expires) {
+            long shortestTimeout = scopeIdleTimeout <= 0 ? scopeMaxAge : scopeMaxAge <= 0 ? scopeIdleTimeout
+                : Math.min(scopeIdleTimeout, scopeMaxAge);
+            BridgeRequestScopeReaper.getInstance(portletContext, shortestTimeout).register(this);
+        }
+
+        if (null != scopeRegistry) {
+            this.registry = scopeRegistry;
+            for (BridgeRequestScope scope : this.store.values()) {
+                scopeRegistry.scopeAdded(this, scope);
+            }
+        }
+    }
+
+    /**
+     * Per JSR-329 6.8.2, clear a scope that is no longer cached, which in turn calls preDestroy on Objects. The scope
+     * is cleared in the background if asynchronous teardown is enabled.
+     */
+    private void destroyScope(BridgeRequestScope scope) {
+        BridgeRequestScopeTeardown scopeTeardown = this.teardown;
+        if (null != scopeTeardown) {
+            scopeTeardown.teardown(scope, this.metrics);
+        } else {
+            BridgeRequestScopeMetrics.clear(scope, this.metrics);
+        }
+    }
+
+    private void recordRemoval() {
+        BridgeRequestScopeMetrics scopeMetrics = this.metrics;
+        if (null != scopeMetrics) {
+            scopeMetrics.scopeRemoved();
+        }
+    }
+
+    private void ensureAttached(BridgeContext ctx) {
+        if (!attached && null != ctx) {
+            // Not attached since being deserialized
+            ensureAttached(ctx.getBridgeConfig().getPortletConfig().getPortletContext());
+        }
+    }
+
+    /**
+     * Attach the manager unless already attached. Concurrent requests of a newly deserialized session wait for the
+     * first of them to attach, so that the manager is only registered with the reaper and registry once.
+     */
+    void ensureAttached(PortletContext portletContext) {
+        synchronized (attachLock) {
+            if (!attached) {
+                attach(portletContext);
+                attached = true;
+            }
+        }
+    }
+
+    /**
+     * Prune the entry of a scope that is no longer stored from the scope id map, unless a newer scope has replaced it.
+     */
+    private void scopeRemoved(BridgeRequestScope scope) {
+        this.scopeIdMap.remove(BridgeRequestScopeKey.forScope(scope), scope.getId());
+        modCount++;
+
+        BridgeRequestScopeRegistry scopeRegistry = this.registry;
+        if (null != scopeRegistry) {
+            scopeRegistry.scopeRemoved(scope);
+        }
     }
 
     /**
@@ -264,7 +530,7 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
      * @param portletContext
      * @return Max number of {@link BridgeRequestScope}'s to manage
      */
-    private int getCacheMax(PortletContext portletContext) {
+    static int getCacheMax(PortletContext portletContext) {
         int maxManagedScopes = DEFAULT_MAX_MANAGED_REQUEST_SCOPES;
         String maxManagedScopesInitParam = portletContext.getInitParameter(Bridge.MAX_MANAGED_REQUEST_SCOPES);
         if (null != maxManagedScopesInitParam) {
@@ -278,6 +544,26 @@ public class BridgeRequestScopeManagerImpl implements BridgeRequestScopeManager,
         return maxManagedScopes;
     }
 
+    /**
+     * Retrieve a timeout, specified in seconds by a portlet init parameter.
+     *
+     * @param portletContext
+     * @param name
+     *            of the init parameter
+     * @return timeout in milliseconds, or 0 if not present or invalid
+     */
+    private long getTimeout(PortletContext portletContext, String name) {
+        String timeoutInitParam = portletContext.getInitParameter(name);
+        if (null != timeoutInitParam) {
+            try {
+                return Math.max(0L, Long.parseLong(timeoutInitParam.trim()) * 1000L);
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "portlet.xml contains invalid value for " + name);
+            }
+        }
+        return 0L;
+    }
+
    public BridgeRequestScopeFactory getScopeFactory() {
       if(scopeFactory == null) {
          scopeFactory = retrieveScopeFactory();
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.portlet.PortletContext;
+
+/**
+ * Default {@link BridgeRequestScopeStore}, holding scopes in a {@link BridgeRequestScopeCache} that is serialized with
+ * the manager.
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeMemoryStore implements BridgeRequestScopeStore, Serializable {
+
+    private static final long serialVersionUID = -1365424692423639489L;
+
+    private final Map<String, BridgeRequestScope> cache;
+
+    private transient volatile EvictionListener listener;
+
+    // Secondary indexes of scope ids, rebuilt from the cache on deserialization
+    private transient BridgeRequestScopeIndex index;
+
+    /**
+     * @param cache
+     *            to hold scopes in, keyed by id. Expiry is only supported if the cache is a {@link ConcurrentMap}.
+     */
+    public BridgeRequestScopeMemoryStore(Map<String, BridgeRequestScope> cache) {
+        this.cache = cache;
+        initIndexes();
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#attach(javax.portlet.PortletContext,
+     *      org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore.EvictionListener)
+     */
+    public void attach(PortletContext portletContext, EvictionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#get(java.lang.String)
+     */
+    public BridgeRequestScope get(String id) {
+        return cache.get(id);
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#put(org.jboss.portletbridge.bridge.scope.BridgeRequestScope)
+     */
+    public void put(BridgeRequestScope scope) {
+        if (cache.get(scope.getId()) == scope) {
+            // Updated in place
+            return;
+        }
+        index(scope);
+        cache.put(scope.getId(), scope);
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#remove(java.lang.String)
+     */
+    public BridgeRequestScope remove(String id) {
+        BridgeRequestScope scope = cache.remove(id);
+        if (null != scope) {
+            unindex(scope);
+        }
+        return scope;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#remove(org.jboss.portletbridge.bridge.scope.BridgeRequestScope)
+     */
+    public boolean remove(BridgeRequestScope scope) {
+        ConcurrentMap<String, BridgeRequestScope> concurrentCache = getConcurrentCache();
+        boolean removed;
+        if (null != concurrentCache) {
+            removed = concurrentCache.remove(scope.getId(), scope);
+        } else {
+            removed = cache.get(scope.getId()) == scope && null != cache.remove(scope.getId());
+        }
+        if (removed) {
+            unindex(scope);
+        }
+        return removed;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeBySession(java.lang.String)
+     */
+    public List<BridgeRequestScope> removeBySession(String sessionId) {
+        return removeAll(index.removeSession(sessionId));
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeByPortlet(java.lang.String)
+     */
+    public List<BridgeRequestScope> removeByPortlet(String portletName) {
+        return removeAll(index.removePortlet(portletName));
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#removeExpired(long, long, long)
+     */
+    public List<BridgeRequestScope> removeExpired(long now, long idleTimeout, long maxAge) {
+        List<BridgeRequestScope> expired = new ArrayList<BridgeRequestScope>(0);
+        ConcurrentMap<String, BridgeRequestScope> concurrentCache = getConcurrentCache();
+        if (null == concurrentCache) {
+            return expired;
+        }
+        for (Map.Entry<String, BridgeRequestScope> entry : concurrentCache.entrySet()) {
+            BridgeRequestScope scope = entry.getValue();
+            // Marked as expired first, so that a request retrieving it concurrently does not use it
+            if (scope instanceof BridgeRequestScopeImpl
+                && ((BridgeRequestScopeImpl) scope).expire(now, idleTimeout, maxAge)
+                && concurrentCache.remove(entry.getKey(), scope)) {
+                unindex(scope);
+                expired.add(scope);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeStore#values()
+     */
+    public Collection<BridgeRequestScope> values() {
+        return cache.values();
+    }
+
+    /**
+     * @return whether the cache supports removal of expired scopes from outside of a request
+     */
+    public boolean isConcurrent() {
+        return null != getConcurrentCache();
+    }
+
+    private List<BridgeRequestScope> removeAll(List<String> ids) {
+        List<BridgeRequestScope> removed = new ArrayList<BridgeRequestScope>(ids.size());
+        for (String id : ids) {
+            BridgeRequestScope scope = remove(id);
+            if (null != scope) {
+                removed.add(scope);
+            }
+        }
+        return removed;
+    }
+
+    private ConcurrentMap<String, BridgeRequestScope> getConcurrentCache() {
+        if (cache instanceof ConcurrentMap) {
+            return (ConcurrentMap<String, BridgeRequestScope>) cache;
+        }
+        return null;
+    }
+
+    private void initIndexes() {
+        this.index = new BridgeRequestScopeIndex();
+
+        if (cache instanceof BridgeRequestScopeCache) {
+            ((BridgeRequestScopeCache) cache).setEvictionListener(new BridgeRequestScopeCache.EvictionListener() {
+                public void scopeEvicted(String key, BridgeRequestScope scope) {
+                    unindex(scope);
+                    EvictionListener evictionListener = listener;
+                    if (null != evictionListener) {
+                        evictionListener.scopeEvicted(scope);
+                    } else {
+                        // As per JSR-329 6.8.2, clear() will call preDestroy() on Objects in Scope
+                        scope.clear();
+                    }
+                }
+            });
+        }
+    }
+
+    private void index(BridgeRequestScope scope) {
+        index.add(scope.getId(), scope.getSessionId(), scope.getPortletName());
+    }
+
+    private void unindex(BridgeRequestScope scope) {
+        index.remove(scope.getId(), scope.getSessionId(), scope.getPortletName());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initIndexes();
+        for (BridgeRequestScope scope : cache.values()) {
+            index(scope);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+
+/**
+ * Counts how the {@link BridgeRequestScope}s of a portlet application are created, retrieved, removed and cleared, to
+ * size javax.portlet.faces.MAX_MANAGED_REQUEST_SCOPES and the other scope limits from data.
+ * <p>
+ * The metrics are shared by all sessions of the application, stored as a {@link PortletContext} attribute, and
+ * registered with the platform MBean server as
+ * <code>org.jboss.portletbridge:type=BridgeRequestScopeMetrics,application=&lt;portlet context name&gt;</code>,
+ * qualified by the identity of the context when the name is empty or taken. They are only collected if
+ * {@link PortletBridgeConstants#REQUEST_SCOPE_METRICS} is enabled.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeMetrics implements BridgeRequestScopeMetricsMBean {
+
+    public static final String METRICS_ATTRIBUTE = BridgeRequestScopeMetrics.class.getName();
+
+    public static final String OBJECT_NAME_PREFIX = "org.jboss.portletbridge:type=BridgeRequestScopeMetrics,application=";
+
+    private static final BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(BridgeRequestScopeMetrics.class
+        .getName());
+
+    private final AtomicLong createdScopes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictedScopes = new AtomicLong();
+    private final AtomicLong limitEvictedScopes = new AtomicLong();
+    private final AtomicLong removedScopes = new AtomicLong();
+    private final AtomicLong expiredScopes = new AtomicLong();
+    private final AtomicLong clearedScopes = new AtomicLong();
+    private final AtomicLong clearedEntries = new AtomicLong();
+    private final AtomicLong clearNanos = new AtomicLong();
+    private final AtomicLong preDestroyNanos = new AtomicLong();
+
+    private volatile ObjectName objectName;
+
+    protected BridgeRequestScopeMetrics() {
+    }
+
+    /**
+     * Retrieve the metrics of the portlet application, creating and registering them if necessary.
+     *
+     * @param portletContext
+     * @return the metrics, or null if {@link PortletBridgeConstants#REQUEST_SCOPE_METRICS} is not enabled
+     */
+    public static BridgeRequestScopeMetrics getInstance(PortletContext portletContext) {
+        Object metrics = portletContext.getAttribute(METRICS_ATTRIBUTE);
+        if (metrics instanceof BridgeRequestScopeMetrics) {
+            return (BridgeRequestScopeMetrics) metrics;
+        }
+
+        if (!Boolean.parseBoolean(portletContext.getInitParameter(PortletBridgeConstants.REQUEST_SCOPE_METRICS))) {
+            return null;
+        }
+
+        synchronized (BridgeRequestScopeMetrics.class) {
+            metrics = portletContext.getAttribute(METRICS_ATTRIBUTE);
+            if (!(metrics instanceof BridgeRequestScopeMetrics)) {
+                BridgeRequestScopeMetrics scopeMetrics = new BridgeRequestScopeMetrics();
+                scopeMetrics.register(portletContext);
+                portletContext.setAttribute(METRICS_ATTRIBUTE, scopeMetrics);
+                metrics = scopeMetrics;
+            }
+        }
+        return (BridgeRequestScopeMetrics) metrics;
+    }
+
+    /**
+     * @return the name the metrics are registered under with the platform MBean server, or null if not registered
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public long getCreatedScopeCount() {
+        return createdScopes.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return lookups > 0 ? (double) hitCount / lookups : 0d;
+    }
+
+    public long getEvictedScopeCount() {
+        return evictedScopes.get();
+    }
+
+    public long getLimitEvictedScopeCount() {
+        return limitEvictedScopes.get();
+    }
+
+    public long getRemovedScopeCount() {
+        return removedScopes.get();
+    }
+
+    public long getExpiredScopeCount() {
+        return expiredScopes.get();
+    }
+
+    /**
+     * Scopes restored from another node after failover are not counted as created, so the count is never allowed to
+     * drop below 0.
+     *
+     * @see org.jboss.portletbridge.bridge.scope.BridgeRequestScopeMetricsMBean#getActiveScopeCount()
+     */
+    public long getActiveScopeCount() {
+        long ended = evictedScopes.get() + limitEvictedScopes.get() + removedScopes.get() + expiredScopes.get();
+        return Math.max(0L, createdScopes.get() - ended);
+    }
+
+    public long getClearedScopeCount() {
+        return clearedScopes.get();
+    }
+
+    public double getAverageEntriesPerScope() {
+        long cleared = clearedScopes.get();
+        return cleared > 0 ? (double) clearedEntries.get() / cleared : 0d;
+    }
+
+    public long getClearTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(clearNanos.get());
+    }
+
+    public long getPreDestroyTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(preDestroyNanos.get());
+    }
+
+    public void reset() {
+        createdScopes.set(0);
+        hits.set(0);
+        misses.set(0);
+        evictedScopes.set(0);
+        limitEvictedScopes.set(0);
+        removedScopes.set(0);
+        expiredScopes.set(0);
+        clearedScopes.set(0);
+        clearedEntries.set(0);
+        clearNanos.set(0);
+        preDestroyNanos.set(0);
+    }
+
+    /**
+     * Unregister from the platform MBean server.
+     */
+    public void shutdown() {
+        ObjectName name = objectName;
+        if (null != name) {
+            objectName = null;
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Unable to unregister Bridge Request Scope metrics " + name, e);
+            }
+        }
+    }
+
+    void scopeCreated() {
+        createdScopes.incrementAndGet();
+    }
+
+    void scopeRetrieved(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+    }
+
+    void scopeEvicted() {
+        evictedScopes.incrementAndGet();
+    }
+
+    void scopeLimitEvicted() {
+        limitEvictedScopes.incrementAndGet();
+    }
+
+    void scopeRemoved() {
+        removedScopes.incrementAndGet();
+    }
+
+    void scopeExpired() {
+        expiredScopes.incrementAndGet();
+    }
+
+    /**
+     * Clear a scope, as per JSR-329 6.8.2, recording its entries and how long it took.
+     *
+     * @param scope
+     *            to clear
+     * @param metrics
+     *            to record with, or null if not enabled
+     */
+    static void clear(BridgeRequestScope scope, BridgeRequestScopeMetrics metrics) {
+        if (null == metrics) {
+            scope.clear();
+            return;
+        }
+
+        int entries = scope.size();
+        long start = System.nanoTime();
+        long preDestroy = 0;
+        if (scope instanceof BridgeRequestScopeImpl) {
+            preDestroy = ((BridgeRequestScopeImpl) scope).clearMeasured();
+        } else {
+            scope.clear();
+        }
+        metrics.clearNanos.addAndGet(System.nanoTime() - start);
+        metrics.preDestroyNanos.addAndGet(preDestroy);
+        metrics.clearedEntries.addAndGet(entries);
+        metrics.clearedScopes.incrementAndGet();
+    }
+
+    /**
+     * Register under the name of the portlet context. The name is qualified by the identity of the context if it is
+     * empty or already registered by another application, as portlet context names need not be unique.
+     */
+    private void register(PortletContext portletContext) {
+        String applicationName = portletContext.getPortletContextName();
+        String identity = Integer.toHexString(System.identityHashCode(portletContext));
+        String[] candidates;
+        if (null == applicationName || applicationName.length() == 0) {
+            candidates = new String[] { '@' + identity };
+        } else {
+            candidates = new String[] { applicationName, applicationName + '@' + identity };
+        }
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        JMException failure = null;
+        for (String candidate : candidates) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(candidate));
+                server.registerMBean(this, name);
+                objectName = name;
+                return;
+            } catch (JMException e) {
+                failure = e;
+                if (!(e instanceof InstanceAlreadyExistsException)) {
+                    break;
+                }
+            }
+        }
+        logger.log(Level.WARNING, "Unable to register Bridge Request Scope metrics for " + applicationName
+            + ", they remain available from the PortletContext", failure);
+    }
+}
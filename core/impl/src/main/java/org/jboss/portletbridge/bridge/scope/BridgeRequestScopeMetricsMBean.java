@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+/**
+ * Management interface of {@link BridgeRequestScopeMetrics}, registered with the platform MBean server for each portlet
+ * application.
+ *
+ * @author kenfinnigan
+ */
+public interface BridgeRequestScopeMetricsMBean {
+
+    /**
+     * @return Number of scopes created
+     */
+    long getCreatedScopeCount();
+
+    /**
+     * @return Number of lookups of a scope by id that found the scope
+     */
+    long getHitCount();
+
+    /**
+     * @return Number of lookups of a scope by id that did not find the scope, or found it expired
+     */
+    long getMissCount();
+
+    /**
+     * @return Ratio of hits to lookups of a scope by id, or 0 if there have been none
+     */
+    double getHitRatio();
+
+    /**
+     * @return Number of scopes evicted because a session exceeded javax.portlet.faces.MAX_MANAGED_REQUEST_SCOPES
+     */
+    long getEvictedScopeCount();
+
+    /**
+     * @return Number of scopes evicted to keep the application within its global limits
+     */
+    long getLimitEvictedScopeCount();
+
+    /**
+     * @return Number of scopes removed by the bridge, or with the session or portlet they belong to
+     */
+    long getRemovedScopeCount();
+
+    /**
+     * @return Number of scopes removed because they expired
+     */
+    long getExpiredScopeCount();
+
+    /**
+     * @return Approximate number of scopes currently held, across all sessions
+     */
+    long getActiveScopeCount();
+
+    /**
+     * @return Number of scopes cleared
+     */
+    long getClearedScopeCount();
+
+    /**
+     * @return Average number of entries of a scope when it was cleared
+     */
+    double getAverageEntriesPerScope();
+
+    /**
+     * @return Total time spent clearing scopes, in milliseconds, including preDestroy callbacks
+     */
+    long getClearTimeMillis();
+
+    /**
+     * @return Total time spent in the preDestroy callbacks of scope attributes, in milliseconds
+     */
+    long getPreDestroyTimeMillis();
+
+    /**
+     * Reset all counters to 0.
+     */
+    void reset();
+}
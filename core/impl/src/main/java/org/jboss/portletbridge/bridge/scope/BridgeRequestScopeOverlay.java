@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jboss.portletbridge.bridge.context.BridgeContext;
+
+/**
+ * Read-through view of a restored {@link BridgeRequestScope}, used in place of copying every scope entry into the
+ * portlet request. Request attribute lookups that are not satisfied by the portlet request fall back to the scope, and
+ * an entry only reaches the portlet request once it is set. Names removed from the request during the Faces lifecycle
+ * are remembered so the scope does not reinstate them.
+ * <p>
+ * The overlay is only consulted through the request attribute map of the <code>ExternalContext</code>, so code that
+ * reads the <code>PortletRequest</code> directly will not see entries that have not been set.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeOverlay {
+
+    /**
+     * Name of the {@link BridgeContext} attribute holding the overlay for the current request.
+     */
+    public static final String OVERLAY_ATTRIBUTE = BridgeRequestScopeOverlay.class.getName();
+
+    private final BridgeRequestScope scope;
+    private Set<String> removedNames;
+
+    public BridgeRequestScopeOverlay(BridgeRequestScope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * Install an overlay of the scope for the current request.
+     */
+    public static void install(BridgeContext bridgeContext, BridgeRequestScope scope) {
+        bridgeContext.getAttributes().put(OVERLAY_ATTRIBUTE, new BridgeRequestScopeOverlay(scope));
+    }
+
+    /**
+     * Retrieve the overlay installed for the current request, or <code>null</code> if the scope was copied into the
+     * request or there was none to restore.
+     */
+    public static BridgeRequestScopeOverlay getInstance(BridgeContext bridgeContext) {
+        return (BridgeRequestScopeOverlay) bridgeContext.getAttributes().get(OVERLAY_ATTRIBUTE);
+    }
+
+    public BridgeRequestScope getScope() {
+        return scope;
+    }
+
+    /**
+     * Retrieve the scope entry for an attribute that is not present in the portlet request.
+     */
+    public Object getAttribute(String name) {
+        if (null != removedNames && removedNames.contains(name)) {
+            return null;
+        }
+        return scope.get(name);
+    }
+
+    /**
+     * Record that an attribute has been removed from the request, so that it is no longer read from the scope.
+     */
+    public void attributeRemoved(String name) {
+        if (null == removedNames) {
+            removedNames = new HashSet<String>();
+        }
+        removedNames.add(name);
+    }
+
+    /**
+     * Combine the attribute names of the portlet request with the names of the scope entries not removed from it. The
+     * names are copied, as the scope may be updated from the request attribute map while they are being enumerated.
+     */
+    public Enumeration<String> getAttributeNames(Enumeration<String> requestNames) {
+        Set<String> names = new LinkedHashSet<String>();
+        while (requestNames.hasMoreElements()) {
+            names.add(requestNames.nextElement());
+        }
+        for (String name : scope.keySet()) {
+            if (null == removedNames || !removedNames.contains(name)) {
+                names.add(name);
+            }
+        }
+        return Collections.enumeration(names);
+    }
+}
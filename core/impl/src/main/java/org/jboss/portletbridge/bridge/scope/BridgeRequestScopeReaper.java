@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+
+/**
+ * Periodically removes the expired {@link BridgeRequestScope}s of every {@link BridgeRequestScopeManagerImpl} in a
+ * portlet application, clearing them on a low priority background thread instead of a request thread.
+ * <p>
+ * A single reaper is shared by all sessions of the application, stored as a {@link PortletContext} attribute, and
+ * stopped when the application is shut down. Managers are only weakly referenced, so a manager that is no longer held
+ * by its session does not need to unregister.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeReaper {
+
+    public static final String REAPER_ATTRIBUTE = BridgeRequestScopeReaper.class.getName();
+
+    private static final long MIN_INTERVAL = 1000L;
+    private static final long MAX_INTERVAL = 60000L;
+
+    private static final BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(BridgeRequestScopeReaper.class
+        .getName());
+
+    private final Queue<WeakReference<BridgeRequestScopeManagerImpl>> managers =
+        new ConcurrentLinkedQueue<WeakReference<BridgeRequestScopeManagerImpl>>();
+    private final AtomicLong reapedScopes = new AtomicLong();
+    private final AtomicLong releasedBytes = new AtomicLong();
+    private final ScheduledExecutorService executor;
+
+    protected BridgeRequestScopeReaper(long interval) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(new BridgeRequestScopeThreadFactory(
+            "PortletBridge Request Scope Reaper"));
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reap();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retrieve the reaper of the portlet application, starting it if necessary.
+     *
+     * @param portletContext
+     * @param shortestTimeout
+     *            shortest idle or maximum age of a scope, in milliseconds, which determines how often the reaper runs
+     * @return the reaper
+     */
+    public static BridgeRequestScopeReaper getInstance(PortletContext portletContext, long shortestTimeout) {
+        Object reaper = portletContext.getAttribute(REAPER_ATTRIBUTE);
+        if (reaper instanceof BridgeRequestScopeReaper) {
+            return (BridgeRequestScopeReaper) reaper;
+        }
+
+        synchronized (BridgeRequestScopeReaper.class) {
+            reaper = portletContext.getAttribute(REAPER_ATTRIBUTE);
+            if (!(reaper instanceof BridgeRequestScopeReaper)) {
+                long interval = Math.min(MAX_INTERVAL, Math.max(MIN_INTERVAL, shortestTimeout / 4));
+                reaper = new BridgeRequestScopeReaper(interval);
+                portletContext.setAttribute(REAPER_ATTRIBUTE, reaper);
+            }
+        }
+        return (BridgeRequestScopeReaper) reaper;
+    }
+
+    public void register(BridgeRequestScopeManagerImpl manager) {
+        managers.add(new WeakReference<BridgeRequestScopeManagerImpl>(manager));
+    }
+
+    /**
+     * @return Number of scopes removed by the reaper because they expired
+     */
+    public long getReapedScopeCount() {
+        return reapedScopes.get();
+    }
+
+    /**
+     * @return Estimated number of bytes held by the scopes removed by the reaper
+     */
+    public long getReleasedBytes() {
+        return releasedBytes.get();
+    }
+
+    /**
+     * Stop the reaper. Scopes that have expired, but not been reaped, remain until their session ends.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        managers.clear();
+    }
+
+    void scopeReaped(long bytes) {
+        reapedScopes.incrementAndGet();
+        releasedBytes.addAndGet(bytes);
+    }
+
+    protected void reap() {
+        long now = System.currentTimeMillis();
+        for (Iterator<WeakReference<BridgeRequestScopeManagerImpl>> it = managers.iterator(); it.hasNext();) {
+            BridgeRequestScopeManagerImpl manager = it.next().get();
+            if (null == manager) {
+                it.remove();
+                continue;
+            }
+            try {
+                manager.reapExpiredScopes(now, this);
+            } catch (RuntimeException e) {
+                logger.log(Level.ERROR, "Error removing expired Bridge Request Scopes", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+
+/**
+ * Enforces a limit on the number, and on the estimated size, of the {@link BridgeRequestScope}s held by all sessions of
+ * a portlet application. Each {@link BridgeRequestScopeManagerImpl} only limits the scopes of its own session.
+ * <p>
+ * When a limit is exceeded the coldest scopes, those unused for longest, are evicted until usage is back below 90% of
+ * the limit. Sessions holding more than an equal share of the scopes are evicted from first, so that one busy session
+ * cannot displace the scopes of every other session.
+ * </p>
+ * <p>
+ * Both limits are enforced on a low priority background thread, so that a request never runs the preDestroy callbacks
+ * of scopes belonging to other sessions. The scope count is checked as scopes are created, and eviction scheduled as
+ * soon as it is exceeded. Estimating the size of a scope is comparatively expensive, so sizes are estimated, and the
+ * size limit enforced, periodically. Only scopes that have not been used for an estimate interval are measured, as
+ * those in use by a request are being modified, and a scope is only measured again once it has changed.
+ * </p>
+ * <p>
+ * Scopes, and their managers, are only weakly referenced, so that the scopes of a session that is invalidated or
+ * passivated without its scopes being removed are released once they are no longer reachable from the session.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeRegistry {
+
+    public static final String REGISTRY_ATTRIBUTE = BridgeRequestScopeRegistry.class.getName();
+
+    private static final long ESTIMATE_INTERVAL = 5000L;
+    private static final long UNKNOWN_SIZE = -1L;
+
+    private static final BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(BridgeRequestScopeRegistry.class
+        .getName());
+
+    private static final Comparator<Entry> COLDEST_FIRST = new Comparator<Entry>() {
+        public int compare(Entry e1, Entry e2) {
+            long t1 = e1.sortTime;
+            long t2 = e2.sortTime;
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    private final int maxScopes;
+    private final long maxBytes;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger scopeCount = new AtomicInteger();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final AtomicLong evictedScopes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor;
+
+    protected BridgeRequestScopeRegistry(int maxScopes, long maxBytes) {
+        this.maxScopes = maxScopes;
+        this.maxBytes = maxBytes;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new BridgeRequestScopeThreadFactory(
+            "PortletBridge Request Scope Registry"));
+        this.executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    logger.log(Level.ERROR, "Error estimating usage of Bridge Request Scopes", e);
+                }
+            }
+        }, ESTIMATE_INTERVAL, ESTIMATE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retrieve the registry of the portlet application, creating it if necessary. Limits are read from the
+     * {@link PortletBridgeConstants#REQUEST_SCOPE_GLOBAL_MAX} and
+     * {@link PortletBridgeConstants#REQUEST_SCOPE_GLOBAL_MAX_BYTES} init parameters.
+     *
+     * @param portletContext
+     * @return the registry, or null if neither limit is set
+     */
+    public static BridgeRequestScopeRegistry getInstance(PortletContext portletContext) {
+        Object registry = portletContext.getAttribute(REGISTRY_ATTRIBUTE);
+        if (registry instanceof BridgeRequestScopeRegistry) {
+            return (BridgeRequestScopeRegistry) registry;
+        }
+
+        int maxScopes = (int) getLimit(portletContext, PortletBridgeConstants.REQUEST_SCOPE_GLOBAL_MAX);
+        long maxBytes = getLimit(portletContext, PortletBridgeConstants.REQUEST_SCOPE_GLOBAL_MAX_BYTES);
+        if (maxScopes <= 0 && maxBytes <= 0) {
+            return null;
+        }
+
+        synchronized (BridgeRequestScopeRegistry.class) {
+            registry = portletContext.getAttribute(REGISTRY_ATTRIBUTE);
+            if (!(registry instanceof BridgeRequestScopeRegistry)) {
+                registry = new BridgeRequestScopeRegistry(maxScopes, maxBytes);
+                portletContext.setAttribute(REGISTRY_ATTRIBUTE, registry);
+            }
+        }
+        return (BridgeRequestScopeRegistry) registry;
+    }
+
+    /**
+     * @return Maximum number of scopes across all sessions, or 0 for no limit
+     */
+    public int getMaxScopes() {
+        return maxScopes;
+    }
+
+    /**
+     * @return Maximum estimated bytes of scopes across all sessions, or 0 for no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Number of scopes currently held across all sessions
+     */
+    public int getScopeCount() {
+        return scopeCount.get();
+    }
+
+    /**
+     * @return Estimated bytes held by the scopes of all sessions, as of the last estimate
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    /**
+     * @return Number of scopes evicted to keep within the limits
+     */
+    public long getEvictedScopeCount() {
+        return evictedScopes.get();
+    }
+
+    /**
+     * Stop estimating usage and release all scopes from the registry, without clearing them.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        entries.clear();
+        scopeCount.set(0);
+        estimatedBytes.set(0);
+    }
+
+    void scopeAdded(BridgeRequestScopeManagerImpl manager, BridgeRequestScope scope) {
+        Entry entry = new Entry(manager, scope);
+        Entry old = entries.put(scope.getId(), entry);
+        if (null != old) {
+            released(old);
+        }
+        if (scopeCount.incrementAndGet() > maxScopes && maxScopes > 0) {
+            scheduleEviction();
+        }
+    }
+
+    private void scheduleEviction() {
+        if (!evictionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    evictionScheduled.set(false);
+                    try {
+                        evictIfRequired();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.ERROR, "Error evicting Bridge Request Scopes", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Registry has been shut down
+            evictionScheduled.set(false);
+        }
+    }
+
+    void scopeRemoved(BridgeRequestScope scope) {
+        Entry entry = entries.get(scope.getId());
+        if (null != entry && entry.scope.get() == scope && entries.remove(scope.getId(), entry)) {
+            released(entry);
+        }
+    }
+
+    /**
+     * Estimate the size of new and recently used scopes, release scopes of sessions that no longer exist, and evict
+     * scopes if over either limit.
+     */
+    protected void refresh() {
+        long quietSince = System.currentTimeMillis() - ESTIMATE_INTERVAL;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            BridgeRequestScope scope = entry.scope.get();
+            if (null == scope || null == entry.manager.get()) {
+                // Session has ended, or been passivated, without its scopes being removed
+                if (entries.remove(entry.id, entry)) {
+                    released(entry);
+                }
+                continue;
+            }
+
+            long accessed = entry.lastAccessedTime(scope);
+            if (accessed > quietSince) {
+                // Possibly in use by a request, measure once it is idle
+                continue;
+            }
+            if (entry.bytes == UNKNOWN_SIZE || accessed > entry.estimatedAt
+                || scope instanceof BridgeRequestScopeImpl) {
+                long bytes;
+                try {
+                    // Only measured again if the scope has changed since it was last estimated
+                    bytes = BridgeRequestScopeSizeEstimator.estimate(scope);
+                } catch (RuntimeException e) {
+                    // Modified while measured, try again on next refresh
+                    logger.log(Level.DEBUG, "Unable to estimate size of Bridge Request Scope " + entry.id, e);
+                    continue;
+                }
+                synchronized (entry) {
+                    if (!entry.released) {
+                        estimatedBytes.addAndGet(bytes - Math.max(0, entry.bytes));
+                        entry.bytes = bytes;
+                        entry.estimatedAt = accessed;
+                    }
+                }
+            }
+        }
+        evictIfRequired();
+    }
+
+    private boolean isOverLimit(int count, long bytes, boolean target) {
+        // Evict a tenth below the limits, so that eviction is not needed again for every new scope
+        long scopeLimit = target ? maxScopes - maxScopes / 10 : maxScopes;
+        long byteLimit = target ? maxBytes - maxBytes / 10 : maxBytes;
+        return (maxScopes > 0 && count > scopeLimit) || (maxBytes > 0 && bytes > byteLimit);
+    }
+
+    private void evictIfRequired() {
+        if (!isOverLimit(scopeCount.get(), estimatedBytes.get(), false) || !evictionLock.tryLock()) {
+            // Under the limits, or another thread is already evicting
+            return;
+        }
+
+        List<Entry> evicted = new ArrayList<Entry>();
+        try {
+            List<Entry> candidates = new ArrayList<Entry>(entries.values());
+            for (Entry entry : candidates) {
+                // Fixed while sorting, as scopes are used, and collected, concurrently
+                entry.sortTime = entry.lastAccessedTime();
+            }
+            Collections.sort(candidates, COLDEST_FIRST);
+
+            Map<String, int[]> sessionCounts = new HashMap<String, int[]>();
+            for (Entry entry : candidates) {
+                int[] sessionCount = sessionCounts.get(entry.sessionId);
+                if (null == sessionCount) {
+                    sessionCount = new int[1];
+                    sessionCounts.put(entry.sessionId, sessionCount);
+                }
+                sessionCount[0]++;
+            }
+            int fairShare = Math.max(1, candidates.size() / Math.max(1, sessionCounts.size()));
+
+            int count = scopeCount.get();
+            long bytes = estimatedBytes.get();
+
+            // First from sessions over their fair share, then from any session
+            for (int pass = 0; pass < 2 && isOverLimit(count, bytes, true); pass++) {
+                for (Iterator<Entry> it = candidates.iterator(); it.hasNext() && isOverLimit(count, bytes, true);) {
+                    Entry entry = it.next();
+                    int[] sessionCount = sessionCounts.get(entry.sessionId);
+                    if (pass == 0 && sessionCount[0] <= fairShare) {
+                        continue;
+                    }
+                    it.remove();
+                    if (entries.remove(entry.id, entry)) {
+                        sessionCount[0]--;
+                        count--;
+                        bytes -= Math.max(0, entry.bytes);
+                        released(entry);
+                        evicted.add(entry);
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        for (Entry entry : evicted) {
+            evictedScopes.incrementAndGet();
+            BridgeRequestScopeManagerImpl manager = entry.manager.get();
+            BridgeRequestScope scope = entry.scope.get();
+            if (null != manager && null != scope) {
+                manager.evictScope(scope);
+            }
+        }
+    }
+
+    private void released(Entry entry) {
+        synchronized (entry) {
+            if (entry.released) {
+                return;
+            }
+            entry.released = true;
+            if (entry.bytes > 0) {
+                estimatedBytes.addAndGet(-entry.bytes);
+            }
+        }
+        scopeCount.decrementAndGet();
+    }
+
+    private static long getLimit(PortletContext portletContext, String name) {
+        String limitInitParam = portletContext.getInitParameter(name);
+        if (null != limitInitParam) {
+            try {
+                return Long.parseLong(limitInitParam.trim());
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "portlet.xml contains invalid value for " + name);
+            }
+        }
+        return 0L;
+    }
+
+    private static final class Entry {
+        final WeakReference<BridgeRequestScopeManagerImpl> manager;
+        final WeakReference<BridgeRequestScope> scope;
+        final String id;
+        final String sessionId;
+        final long registeredAt = System.currentTimeMillis();
+
+        // Only estimated by the background thread
+        volatile long bytes = UNKNOWN_SIZE;
+        long estimatedAt;
+        // Only used while holding the eviction lock
+        long sortTime;
+
+        // Guarded by this
+        boolean released;
+
+        Entry(BridgeRequestScopeManagerImpl manager, BridgeRequestScope scope) {
+            this.manager = new WeakReference<BridgeRequestScopeManagerImpl>(manager);
+            this.scope = new WeakReference<BridgeRequestScope>(scope);
+            this.id = scope.getId();
+            this.sessionId = scope.getSessionId();
+        }
+
+        long lastAccessedTime() {
+            BridgeRequestScope current = scope.get();
+            // A scope that is no longer reachable is the coldest of all
+            return null != current ? lastAccessedTime(current) : Long.MIN_VALUE;
+        }
+
+        long lastAccessedTime(BridgeRequestScope current) {
+            if (current instanceof BridgeRequestScopeImpl) {
+                return ((BridgeRequestScopeImpl) current).getLastAccessedTime();
+            }
+            return registeredAt;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.faces.component.UIComponent;
+
+/**
+ * Estimates the heap retained by the attributes of a {@link BridgeRequestScope}. Component trees are estimated from
+ * their number of components, other serializable values from their serialized size, so an estimate is only suitable
+ * for reporting and budgeting, not for accounting.
+ *
+ * @author kenfinnigan
+ */
+final class BridgeRequestScopeSizeEstimator {
+
+    private static final int ENTRY_SIZE = 48;
+    private static final int STRING_SIZE = 40;
+    private static final int BOXED_SIZE = 16;
+    private static final int COMPONENT_SIZE = 512;
+    private static final int UNKNOWN_SIZE = 64;
+
+    private BridgeRequestScopeSizeEstimator() {
+        // Prevent instantiation
+    }
+
+    /**
+     * @return the estimate cached by a {@link BridgeRequestScopeImpl} until it is changed, otherwise a new estimate
+     */
+    static long estimate(BridgeRequestScope scope) {
+        if (scope instanceof BridgeRequestScopeImpl) {
+            return ((BridgeRequestScopeImpl) scope).getEstimatedSize();
+        }
+        return estimateEntries(scope);
+    }
+
+    static long estimateEntries(Map<String, Object> scope) {
+        long size = 0;
+        for (Map.Entry<String, Object> entry : scope.entrySet()) {
+            size += ENTRY_SIZE + estimateString(entry.getKey()) + estimateValue(entry.getValue());
+        }
+        return size;
+    }
+
+    static long estimateValue(Object value) {
+        if (null == value) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return estimateString((String) value);
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            return BOXED_SIZE;
+        }
+        if (value instanceof UIComponent) {
+            return countComponents((UIComponent) value) * COMPONENT_SIZE;
+        }
+        if (value instanceof Serializable) {
+            return serializedSize(value);
+        }
+        return UNKNOWN_SIZE;
+    }
+
+    private static long estimateString(String value) {
+        return null != value ? STRING_SIZE + 2L * value.length() : 0;
+    }
+
+    private static long countComponents(UIComponent root) {
+        long count = 0;
+        List<UIComponent> pending = new ArrayList<UIComponent>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            UIComponent component = pending.remove(pending.size() - 1);
+            count++;
+            for (Iterator<UIComponent> it = component.getFacetsAndChildren(); it.hasNext();) {
+                pending.add(it.next());
+            }
+        }
+        return count;
+    }
+
+    private static long serializedSize(Object value) {
+        CountingOutputStream counter = new CountingOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(counter);
+            out.writeObject(value);
+            out.flush();
+        } catch (IOException e) {
+            // Part of the object graph is not serializable, count what was written
+        } catch (RuntimeException e) {
+            // Ignore failures of custom serialization
+        }
+        return Math.max(counter.count, UNKNOWN_SIZE);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
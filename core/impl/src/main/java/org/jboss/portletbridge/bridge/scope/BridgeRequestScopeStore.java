@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.portlet.PortletContext;
+
+/**
+ * Storage of the {@link BridgeRequestScope}s of a {@link BridgeRequestScopeManagerImpl}. The store is held by the
+ * manager, and is serialized with it when the manager is kept in the session. A different store can be plugged in
+ * through the BridgeRequestScopeManagerFactory.
+ *
+ * @author kenfinnigan
+ */
+public interface BridgeRequestScopeStore {
+
+    /**
+     * Bind the store to the application. Called when the manager is created, and again when the manager is first used
+     * after being deserialized.
+     *
+     * @param portletContext
+     *            of the application
+     * @param listener
+     *            to notify of scopes the store evicts by itself
+     */
+    void attach(PortletContext portletContext, EvictionListener listener);
+
+    /**
+     * Retrieve a scope.
+     *
+     * @param id
+     *            of the scope
+     * @return the scope, or null if it is not stored
+     */
+    BridgeRequestScope get(String id);
+
+    /**
+     * Store a new scope, or write back a scope whose content has been updated during the request.
+     *
+     * @param scope
+     *            to store
+     */
+    void put(BridgeRequestScope scope);
+
+    /**
+     * Remove a scope. The store does not clear the scope it returns.
+     *
+     * @param id
+     *            of the scope
+     * @return the removed scope, or null if it was not stored. A store holding scopes outside of memory may return an
+     *         empty scope with the identity of the removed one, if that held nothing that needs clearing.
+     */
+    BridgeRequestScope remove(String id);
+
+    /**
+     * Remove a scope, only if it is still the one stored for its id.
+     *
+     * @param scope
+     *            to remove
+     * @return true if the scope was removed
+     */
+    boolean remove(BridgeRequestScope scope);
+
+    /**
+     * Remove all the scopes of a session.
+     *
+     * @param sessionId
+     *            of the session
+     * @return the removed scopes
+     */
+    List<BridgeRequestScope> removeBySession(String sessionId);
+
+    /**
+     * Remove all the scopes of a portlet.
+     *
+     * @param portletName
+     *            of the portlet
+     * @return the removed scopes
+     */
+    List<BridgeRequestScope> removeByPortlet(String portletName);
+
+    /**
+     * Remove the scopes that have been idle, or were created, longer ago than allowed.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @param idleTimeout
+     *            in milliseconds, 0 if scopes do not expire when idle
+     * @param maxAge
+     *            in milliseconds, 0 if scopes do not expire with age
+     * @return the removed scopes
+     */
+    List<BridgeRequestScope> removeExpired(long now, long idleTimeout, long maxAge);
+
+    /**
+     * @return the scopes currently held in memory by the store
+     */
+    Collection<BridgeRequestScope> values();
+
+    /**
+     * Notified of scopes evicted by a {@link BridgeRequestScopeStore} to stay within its capacity. The listener is
+     * responsible for clearing the evicted scope, as per JSR-329 6.8.2.
+     */
+    interface EvictionListener {
+        void scopeEvicted(BridgeRequestScope scope);
+    }
+}
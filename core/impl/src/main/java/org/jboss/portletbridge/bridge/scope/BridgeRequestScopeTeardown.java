@@ -0,0 +1,206 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+import org.jboss.portletbridge.listener.PortletBridgeListener;
+
+/**
+ * Clears {@link BridgeRequestScope}s that have been removed or evicted on a low priority background thread, so that
+ * the preDestroy callbacks of their attributes do not add to the latency of the request that removed them.
+ * <p>
+ * A scope is cleared with the context class loader of the thread that handed it over, and the JSF InjectionProvider is
+ * resolved on that thread, so that preDestroy of managed beans can be called without a FacesContext.
+ * </p>
+ * <p>
+ * Scopes waiting to be cleared are held in a bounded queue. When the queue is full, or the application is shutting
+ * down, a scope is cleared on the calling thread instead, which slows down the requests removing scopes faster than
+ * they can be cleared.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public class BridgeRequestScopeTeardown {
+
+    public static final String TEARDOWN_ATTRIBUTE = BridgeRequestScopeTeardown.class.getName();
+
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+
+    private static final BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(BridgeRequestScopeTeardown.class
+        .getName());
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong asyncTeardowns = new AtomicLong();
+    private final AtomicLong syncTeardowns = new AtomicLong();
+
+    protected BridgeRequestScopeTeardown(int queueSize) {
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+            queueSize), new BridgeRequestScopeThreadFactory("PortletBridge Request Scope Teardown"),
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Retrieve the teardown of the portlet application, creating it if necessary.
+     *
+     * @param portletContext
+     * @return the teardown, or null if {@link PortletBridgeConstants#REQUEST_SCOPE_ASYNC_TEARDOWN} is not enabled
+     */
+    public static BridgeRequestScopeTeardown getInstance(PortletContext portletContext) {
+        Object teardown = portletContext.getAttribute(TEARDOWN_ATTRIBUTE);
+        if (teardown instanceof BridgeRequestScopeTeardown) {
+            return (BridgeRequestScopeTeardown) teardown;
+        }
+
+        String asyncInitParam = portletContext.getInitParameter(PortletBridgeConstants.REQUEST_SCOPE_ASYNC_TEARDOWN);
+        if (!Boolean.parseBoolean(asyncInitParam)) {
+            return null;
+        }
+
+        synchronized (BridgeRequestScopeTeardown.class) {
+            teardown = portletContext.getAttribute(TEARDOWN_ATTRIBUTE);
+            if (!(teardown instanceof BridgeRequestScopeTeardown)) {
+                teardown = new BridgeRequestScopeTeardown(getQueueSize(portletContext));
+                portletContext.setAttribute(TEARDOWN_ATTRIBUTE, teardown);
+            }
+        }
+        return (BridgeRequestScopeTeardown) teardown;
+    }
+
+    /**
+     * Clear the scope in the background, or on the calling thread if the queue is full.
+     *
+     * @param scope
+     *            no longer held by any manager
+     */
+    public void teardown(BridgeRequestScope scope) {
+        teardown(scope, null);
+    }
+
+    /**
+     * Clear the scope in the background, or on the calling thread if the queue is full, recording it with the metrics
+     * of the application.
+     *
+     * @param scope
+     *            no longer held by any manager
+     * @param metrics
+     *            to record the clearing with, or null if not enabled
+     */
+    public void teardown(final BridgeRequestScope scope, final BridgeRequestScopeMetrics metrics) {
+        // Resolved on the calling thread, as preDestroy of managed beans needs the context of the application
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        PortletBridgeListener listener = PortletBridgeListener.getCurrentInstance();
+        if (null != listener) {
+            listener.resolveInjectionProvider();
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    Thread thread = Thread.currentThread();
+                    ClassLoader previous = thread.getContextClassLoader();
+                    thread.setContextClassLoader(contextClassLoader);
+                    try {
+                        clear(scope, metrics);
+                    } finally {
+                        thread.setContextClassLoader(previous);
+                    }
+                }
+            });
+            asyncTeardowns.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            syncTeardowns.incrementAndGet();
+            clear(scope, metrics);
+        }
+    }
+
+    /**
+     * @return Number of scopes handed to the background thread
+     */
+    public long getAsyncTeardownCount() {
+        return asyncTeardowns.get();
+    }
+
+    /**
+     * @return Number of scopes cleared on the calling thread because the queue was full
+     */
+    public long getSyncTeardownCount() {
+        return syncTeardowns.get();
+    }
+
+    /**
+     * @return Number of scopes waiting to be cleared
+     */
+    public int getQueuedTeardownCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop accepting scopes, and wait for a limited time for those already queued to be cleared.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.log(Level.WARNING, executor.getQueue().size()
+                    + " Bridge Request Scopes were not cleared before shutdown");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void clear(BridgeRequestScope scope, BridgeRequestScopeMetrics metrics) {
+        try {
+            // As per JSR-329 6.8.2, clear() will call preDestroy() on Objects in Scope
+            BridgeRequestScopeMetrics.clear(scope, metrics);
+        } catch (RuntimeException e) {
+            logger.log(Level.ERROR, "Error clearing Bridge Request Scope " + scope.getId(), e);
+        }
+    }
+
+    private static int getQueueSize(PortletContext portletContext) {
+        String queueSizeInitParam = portletContext
+            .getInitParameter(PortletBridgeConstants.REQUEST_SCOPE_TEARDOWN_QUEUE_SIZE);
+        if (null != queueSizeInitParam) {
+            try {
+                return Math.max(1, Integer.parseInt(queueSizeInitParam.trim()));
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "portlet.xml contains invalid value for "
+                    + PortletBridgeConstants.REQUEST_SCOPE_TEARDOWN_QUEUE_SIZE);
+            }
+        }
+        return DEFAULT_QUEUE_SIZE;
+    }
+}
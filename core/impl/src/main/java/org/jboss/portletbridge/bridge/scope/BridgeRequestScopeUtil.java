@@ -21,102 +21,36 @@
  */
 package org.jboss.portletbridge.bridge.scope;
 
-import java.util.List;
-
-import javax.faces.context.ExternalContext;
-import javax.faces.context.FacesContext;
-import javax.portlet.PortalContext;
-import javax.portlet.PortletConfig;
-import javax.portlet.PortletContext;
-import javax.portlet.PortletPreferences;
-import javax.portlet.PortletRequest;
-import javax.portlet.PortletResponse;
-import javax.portlet.PortletSession;
-import javax.portlet.faces.annotation.ExcludeFromManagedRequestScope;
-import javax.servlet.ServletConfig;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletRequest;
-import javax.servlet.ServletResponse;
-import javax.servlet.http.HttpSession;
-
-import org.jboss.portletbridge.context.AbstractExternalContext;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Contains static methods to determine whether an attribute belongs in the managed {@link BridgeRequestScope} or not,
- * based on the exclusion definition from JSR-329 5.1.2.1. Also provides method to generate {@link BridgeRequestScope}
- * Id prefix.
+ * Contains static methods to generate {@link BridgeRequestScope} Ids and Id prefixes. Whether an attribute belongs in
+ * the managed {@link BridgeRequestScope}, as per JSR-329 5.1.2.1, is determined by {@link ExcludedAttributeMatcher}.
  *
  * @author kenfinnigan
  */
 public class BridgeRequestScopeUtil {
 
+    private static final long SCOPE_ID_RANDOM_MASK = 0xFFFFFFFFFFL;
+
+    private static final AtomicLong scopeIdCounter = new AtomicLong();
+    private static final Random scopeIdRandom = new Random();
+
     private BridgeRequestScopeUtil() {
         // Prevent instantiation
     }
 
     /**
-     * Allows the caller to determine if a given attribute name/value pair will be excluded or not from the
-     * {@link BridgeRequestScope}.
+     * Generate a short {@link BridgeRequestScope} Id. A counter makes the Id unique within the JVM, and a random value
+     * makes it unlikely to collide with the Id of a scope created on another node, or before a restart.
      *
-     * @param key
-     *            name of the attribute
-     * @param value
-     *            of the attribute
-     * @param localExcludes
-     *            any excludes that are not part of the JSR-329 5.1.2.1 spec
-     * @return true if the attribute will be excluded, false otherwise.
+     * @return Id of the form counter.random, both in base 36
      */
-    public static boolean isExcluded(String key, Object value, List<String> localExcludes) {
-        return ((null != value && isExcludedBean(value)) || (null != localExcludes && localExcludes.contains(key))
-            || isExcludedByDefinition(key, value) || isExcludedNamespace(key, localExcludes));
-    }
-
-    public static boolean isExcludedByDefinition(String key, Object value) {
-        if (null != value
-            && (value instanceof PortletConfig || value instanceof PortletContext || value instanceof PortletRequest
-                || value instanceof PortletResponse || value instanceof PortletSession
-                || value instanceof PortletPreferences || value instanceof PortalContext
-                || value instanceof FacesContext || value instanceof ExternalContext || value instanceof ServletConfig
-                || value instanceof ServletContext || value instanceof ServletRequest
-                || value instanceof ServletResponse || value instanceof HttpSession)) {
-            return true;
-        }
-
-        return isNamespaceMatch(key, "javax.portlet.")
-            || isNamespaceMatch(key, "javax.portlet.faces.")
-            || isNamespaceMatch(key, "javax.faces.")
-            || isNamespaceMatch(key, "javax.servlet.")
-            || isNamespaceMatch(key, "javax.servlet.include.")
-            || isNamespaceMatch(key, AbstractExternalContext.INITIAL_REQUEST_ATTRIBUTES_NAMES);
-    }
-
-    public static boolean isExcludedBean(Object bean) {
-        return bean.getClass().isAnnotationPresent(ExcludeFromManagedRequestScope.class);
-    }
-
-    public static boolean isExcludedNamespace(String key, List<String> localExcludes) {
-        if (null == localExcludes) {
-            return false;
-        }
-        if (localExcludes.contains(key)) {
-            return true;
-        }
-        for (String exclude : localExcludes) {
-            if (exclude.endsWith("*")) {
-                if (isNamespaceMatch(key, exclude.substring(0, exclude.length() - 1))) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    public static boolean isNamespaceMatch(String key, String namespace) {
-        if (null != key && null != namespace && key.startsWith(namespace)) {
-            key = key.substring(0, key.lastIndexOf('.') + 1);
-            return key.equals(namespace);
-        }
-        return false;
+    public static String generateBridgeRequestScopeId() {
+        long random = scopeIdRandom.nextLong() & SCOPE_ID_RANDOM_MASK;
+        return new StringBuilder(16).append(Long.toString(scopeIdCounter.incrementAndGet(), Character.MAX_RADIX))
+            .append('.').append(Long.toString(random, Character.MAX_RADIX)).toString();
     }
 
     /**
@@ -0,0 +1,287 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.portlet.PortalContext;
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+import javax.portlet.PortletPreferences;
+import javax.portlet.PortletRequest;
+import javax.portlet.PortletResponse;
+import javax.portlet.PortletSession;
+import javax.portlet.faces.annotation.ExcludeFromManagedRequestScope;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.jboss.portletbridge.bridge.config.BridgeConfig;
+import org.jboss.portletbridge.context.AbstractExternalContext;
+import org.jboss.portletbridge.util.ClassValueCache;
+import org.jboss.portletbridge.util.HashedNameList;
+
+/**
+ * Compiled form of a list of excluded attribute names, following the syntax of JSR-329 5.1.2.1. Names ending in "*"
+ * exclude every attribute in that namespace, but not in its sub namespaces; all other names are excluded exactly.
+ * <p>
+ * Exact names are held in a hash set and namespaces in a character trie, so a check walks the attribute name at most
+ * once and allocates nothing. Whether a value is excluded by its type is resolved once per class.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public final class ExcludedAttributeMatcher {
+
+    private static final String CONFIG_ATTRIBUTE = ExcludedAttributeMatcher.class.getName();
+
+    private static final Class<?>[] EXCLUDED_TYPES = { PortletConfig.class, PortletContext.class,
+        PortletRequest.class, PortletResponse.class, PortletSession.class, PortletPreferences.class,
+        PortalContext.class, FacesContext.class, ExternalContext.class, ServletConfig.class, ServletContext.class,
+        ServletRequest.class, ServletResponse.class, HttpSession.class };
+
+    /**
+     * Namespaces excluded by JSR-329 5.1.2.1 regardless of configuration.
+     */
+    private static final ExcludedAttributeMatcher DEFINITION = new ExcludedAttributeMatcher(null);
+
+    static {
+        DEFINITION.addNamespace("javax.portlet.");
+        DEFINITION.addNamespace("javax.portlet.faces.");
+        DEFINITION.addNamespace("javax.faces.");
+        DEFINITION.addNamespace("javax.servlet.");
+        DEFINITION.addNamespace("javax.servlet.include.");
+        DEFINITION.addNamespace(AbstractExternalContext.INITIAL_REQUEST_ATTRIBUTES_NAMES);
+    }
+
+    private static final ClassValueCache<Boolean> TYPE_EXCLUDED = new ClassValueCache<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            if (type.isAnnotationPresent(ExcludeFromManagedRequestScope.class)) {
+                return Boolean.TRUE;
+            }
+            for (Class<?> excluded : EXCLUDED_TYPES) {
+                if (excluded.isAssignableFrom(type)) {
+                    return Boolean.TRUE;
+                }
+            }
+            return Boolean.FALSE;
+        }
+    };
+
+    private final ExcludedAttributeMatcher parent;
+    // Either a HashSet of its own, or a HashedNameList shared with the caller
+    private Collection<String> names = Collections.emptySet();
+    private final TrieNode namespaces = new TrieNode();
+
+    private List<String> source;
+    private int sourceSize;
+
+    private ExcludedAttributeMatcher(ExcludedAttributeMatcher parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Compile the given excluded attribute names.
+     *
+     * @param excludedNames
+     *            may be null
+     * @return matcher for the names
+     */
+    public static ExcludedAttributeMatcher compile(Collection<String> excludedNames) {
+        return compile(null, excludedNames);
+    }
+
+    /**
+     * Retrieve the matcher for {@link BridgeConfig#getExcludedRequestAttributes()}, compiling it on first use. The
+     * matcher is kept in the {@link BridgeConfig} attributes, and compiled again if the excluded attributes have been
+     * replaced or added to since.
+     *
+     * @param bridgeConfig
+     * @return matcher for the excluded request attributes of the portlet
+     */
+    public static ExcludedAttributeMatcher forConfig(BridgeConfig bridgeConfig) {
+        List<String> excludedNames = bridgeConfig.getExcludedRequestAttributes();
+        Object cached = bridgeConfig.getAttributes().get(CONFIG_ATTRIBUTE);
+
+        if (cached instanceof ExcludedAttributeMatcher) {
+            ExcludedAttributeMatcher matcher = (ExcludedAttributeMatcher) cached;
+            if (matcher.source == excludedNames && matcher.sourceSize == excludedNames.size()) {
+                return matcher;
+            }
+        }
+
+        ExcludedAttributeMatcher matcher = compile(excludedNames);
+        matcher.source = excludedNames;
+        matcher.sourceSize = excludedNames.size();
+        bridgeConfig.getAttributes().put(CONFIG_ATTRIBUTE, matcher);
+        return matcher;
+    }
+
+    /**
+     * Whether a value of the given type is excluded, either by JSR-329 5.1.2.1 or because the class is annotated with
+     * {@link ExcludeFromManagedRequestScope}.
+     */
+    public static boolean isExcludedType(Class<?> type) {
+        return TYPE_EXCLUDED.get(type);
+    }
+
+    /**
+     * Whether the attribute name is in one of the namespaces excluded by JSR-329 5.1.2.1.
+     */
+    public static boolean isExcludedByDefinition(String key) {
+        return DEFINITION.matches(key);
+    }
+
+    /**
+     * Release the cached type exclusions, to be called when the application is shut down.
+     */
+    public static void clearCache() {
+        TYPE_EXCLUDED.clear();
+    }
+
+    /**
+     * Create a matcher that excludes the names of this matcher and the additional names. This matcher is unchanged.
+     *
+     * @param excludedNames
+     *            may be null
+     * @return combined matcher
+     */
+    public ExcludedAttributeMatcher with(Collection<String> excludedNames) {
+        if (null == excludedNames || excludedNames.isEmpty()) {
+            return this;
+        }
+        return compile(this, excludedNames);
+    }
+
+    /**
+     * Determine whether an attribute is excluded from the {@link BridgeRequestScope}, by its value or by its name.
+     *
+     * @param key
+     *            name of the attribute
+     * @param value
+     *            of the attribute
+     * @return true if the attribute is excluded, false otherwise.
+     */
+    public boolean isExcluded(String key, Object value) {
+        return (null != value && isExcludedType(value.getClass())) || isExcludedByDefinition(key) || matches(key);
+    }
+
+    /**
+     * Whether the attribute name is excluded by the compiled names.
+     */
+    public boolean matches(String key) {
+        if (null == key) {
+            return false;
+        }
+        for (ExcludedAttributeMatcher matcher = this; null != matcher; matcher = matcher.parent) {
+            if (matcher.names.contains(key) || matcher.matchesNamespace(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ExcludedAttributeMatcher compile(ExcludedAttributeMatcher parent, Collection<String> excludedNames) {
+        ExcludedAttributeMatcher matcher = new ExcludedAttributeMatcher(parent);
+        // A HashedNameList is immutable with constant time lookups already, so it is shared instead of copied
+        Set<String> names = excludedNames instanceof HashedNameList ? null : new HashSet<String>();
+        if (null != excludedNames) {
+            for (String name : excludedNames) {
+                if (null == name) {
+                    continue;
+                }
+                if (null != names) {
+                    names.add(name);
+                }
+                if (name.endsWith("*")) {
+                    matcher.addNamespace(name.substring(0, name.length() - 1));
+                }
+            }
+        }
+        matcher.names = null != names ? names : excludedNames;
+        return matcher;
+    }
+
+    private void addNamespace(String namespace) {
+        TrieNode node = namespaces;
+        for (int i = 0; i < namespace.length(); i++) {
+            node = node.addChild(namespace.charAt(i));
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * An attribute is in a namespace when its name, up to and including the last '.', equals the namespace.
+     */
+    private boolean matchesNamespace(String key) {
+        int end = key.lastIndexOf('.') + 1;
+        TrieNode node = namespaces;
+        for (int i = 0; i < end && null != node; i++) {
+            node = node.child(key.charAt(i));
+        }
+        return null != node && node.terminal;
+    }
+
+    private static final class TrieNode {
+        private static final char[] NO_LABELS = new char[0];
+        private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+        char[] labels = NO_LABELS;
+        TrieNode[] children = NO_CHILDREN;
+        boolean terminal;
+
+        TrieNode child(char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode addChild(char label) {
+            TrieNode child = child(label);
+            if (null == child) {
+                child = new TrieNode();
+                int size = labels.length;
+                char[] newLabels = new char[size + 1];
+                TrieNode[] newChildren = new TrieNode[size + 1];
+                System.arraycopy(labels, 0, newLabels, 0, size);
+                System.arraycopy(children, 0, newChildren, 0, size);
+                newLabels[size] = label;
+                newChildren[size] = child;
+                labels = newLabels;
+                children = newChildren;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+/**
+ * Key-value cache, shared outside of the session, that a {@link BridgeRequestScopeKeyValueStore} writes serialized
+ * scopes to. Implementations adapt a distributed cache or data grid, and must be safe for concurrent use.
+ * <p>
+ * The application either registers an instance as the PortletContext attribute {@link #CACHE_ATTRIBUTE}, or names an
+ * implementation with a public no-arg constructor in the
+ * <code>org.jboss.portletbridge.BRIDGE_SCOPE_KEY_VALUE_CACHE</code> init parameter.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public interface KeyValueCache {
+
+    /**
+     * Name of the PortletContext attribute holding the cache of the application.
+     */
+    String CACHE_ATTRIBUTE = KeyValueCache.class.getName();
+
+    /**
+     * @param key
+     *            of the value
+     * @return the value, or null if there is none
+     */
+    byte[] get(String key);
+
+    /**
+     * @param key
+     *            of the value
+     * @param value
+     *            to store
+     */
+    void put(String key, byte[] value);
+
+    /**
+     * @param key
+     *            of the value to remove
+     */
+    void remove(String key);
+}
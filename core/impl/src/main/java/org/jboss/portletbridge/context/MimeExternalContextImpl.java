@@ -69,6 +69,17 @@ public abstract class MimeExternalContextImpl extends PortletExternalContextImpl
         return (MimeResponse) super.getResponse();
     }
 
+    /**
+     * Portlet mode, window state and render parameters are fixed for the duration of a render or resource request, and
+     * urls are only written by the container, so encoded urls can be reused.
+     *
+     * @see org.jboss.portletbridge.context.PortletExternalContextImpl#isEncodedUrlCacheEnabled()
+     */
+    @Override
+    protected boolean isEncodedUrlCacheEnabled() {
+        return true;
+    }
+
     @Override
     protected String createActionUrl(PortalActionURL url, boolean escape) {
         MimeResponse renderResponse = getMimeResponse();
@@ -23,16 +23,23 @@ package org.jboss.portletbridge.context;
 
 import java.net.MalformedURLException;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
+ * URL of the form <code>[protocol:][//host][:port][path][?query]</code>, as used by the Bridge for the URLs it encodes.
+ * <p>
+ * The URL is parsed in a single pass that records where each component starts and ends, and the components are only
+ * copied out of the URL once they are asked for. Likewise the query string is only parsed into parameters once they,
+ * or the query string, are asked for.
+ * </p>
+ *
  * @author asmirnov
  */
 public class PortalActionURL {
 
-    private static final Pattern urlPattern = Pattern
-        .compile("^(\\w*:)?(//[\\w\\._-]+[^/:?])?((?:\\:)(\\d+))?([^?]*)?((?:\\?)(.*))?$");
+    private static final int PROTOCOL = 1;
+    private static final int HOST = 2;
+    private static final int PATH = 4;
+    private static final int QUERY = 8;
 
     private String protocol;
 
@@ -61,6 +68,17 @@ public class PortalActionURL {
 
     private int length;
 
+    // Parsed URL, with the offsets of its components, and the components not copied out of it yet
+    private String source;
+    private int protocolEnd;
+    private int hostStart;
+    private int hostEnd;
+    private int pathStart;
+    private int pathEnd;
+    private int queryStart;
+    private boolean escape;
+    private int unresolved;
+
     /**
      * @param url
      */
@@ -72,19 +90,73 @@ public class PortalActionURL {
      * @param url
      */
     public PortalActionURL(String url, boolean escape) throws MalformedURLException {
-        Matcher urlMatcher = urlPattern.matcher(url);
-        if (!urlMatcher.matches()) {
-            throw new MalformedURLException(url);
+        int urlLength = url.length();
+        int pos = 0;
+
+        // Protocol, word characters followed by ':'
+        int end = 0;
+        while (end < urlLength && isWordChar(url.charAt(end))) {
+            end++;
+        }
+        if (end < urlLength && ':' == url.charAt(end)) {
+            pos = end + 1;
         }
-        length = url.length();
-        this.protocol = urlMatcher.group(1);
-        this.host = urlMatcher.group(2);
-        String portStr = urlMatcher.group(4);
-        if (null != portStr && portStr.length() > 0) {
-            this.port = Integer.parseInt(portStr);
+        this.protocolEnd = pos;
+
+        // Host, "//" followed by host characters and one more character that is not a delimiter. The last host
+        // character stands in for that one when followed by a delimiter, so at least two are needed then.
+        this.hostStart = -1;
+        if (url.startsWith("//", pos)) {
+            int runEnd = pos + 2;
+            while (runEnd < urlLength && isHostChar(url.charAt(runEnd))) {
+                runEnd++;
+            }
+            int run = runEnd - pos - 2;
+            end = -1;
+            if (run >= 1 && runEnd < urlLength && !isDelimiter(url.charAt(runEnd))) {
+                end = runEnd + 1;
+            } else if (run >= 2) {
+                end = runEnd;
+            }
+            if (end > 0) {
+                this.hostStart = pos;
+                this.hostEnd = end;
+                pos = end;
+            }
+        }
+
+        // Port, ':' followed by digits
+        if (pos < urlLength && ':' == url.charAt(pos)) {
+            end = pos + 1;
+            while (end < urlLength && isDigit(url.charAt(end))) {
+                end++;
+            }
+            if (end > pos + 1) {
+                this.port = Integer.parseInt(url.substring(pos + 1, end));
+                pos = end;
+            }
+        }
+
+        // Path up to the query string, which must not contain line terminators
+        this.pathStart = pos;
+        int query = url.indexOf('?', pos);
+        if (query < 0) {
+            this.pathEnd = urlLength;
+            this.queryStart = -1;
+        } else {
+            this.pathEnd = query;
+            this.queryStart = query + 1;
+            for (int i = queryStart; i < urlLength; i++) {
+                if (isLineTerminator(url.charAt(i))) {
+                    throw new MalformedURLException(url);
+                }
+            }
         }
-        this.path = urlMatcher.group(5);
-        this.queryString = new PortalUrlQueryString(urlMatcher.group(7), escape);
+
+        this.source = url;
+        this.length = urlLength;
+        this.escape = escape;
+        this.unresolved = PROTOCOL | HOST | PATH | QUERY;
     }
 
     /**
@@ -97,10 +169,10 @@ public class PortalActionURL {
             throw new IllegalArgumentException("Source URL is null");
         }
         this.length = src.length;
-        this.protocol = src.protocol;
-        this.host = src.host;
+        this.protocol = src.getProtocol();
+        this.host = src.getHost();
         this.port = src.port;
-        this.path = src.path;
+        this.path = src.getPath();
         this.queryString = new PortalUrlQueryString(src.getQueryString(), escape);
         this.authority = src.authority;
         this.userInfo = src.userInfo;
@@ -110,6 +182,10 @@ public class PortalActionURL {
      * @return the protocol
      */
     public String getProtocol() {
+        if (0 != (unresolved & PROTOCOL)) {
+            protocol = protocolEnd > 0 ? source.substring(0, protocolEnd) : null;
+            resolved(PROTOCOL);
+        }
         return protocol;
     }
 
@@ -117,6 +193,10 @@ public class PortalActionURL {
      * @return the host
      */
     public String getHost() {
+        if (0 != (unresolved & HOST)) {
+            host = hostStart >= 0 ? source.substring(hostStart, hostEnd) : null;
+            resolved(HOST);
+        }
         return host;
     }
 
@@ -138,6 +218,10 @@ public class PortalActionURL {
      * @return the path
      */
     public String getPath() {
+        if (0 != (unresolved & PATH)) {
+            path = source.substring(pathStart, pathEnd);
+            resolved(PATH);
+        }
         return path;
     }
 
@@ -152,55 +236,61 @@ public class PortalActionURL {
      * @return the queryString
      */
     public String getQueryString() {
-        if (null != queryString) {
-            return queryString.toString();
+        PortalUrlQueryString query = query();
+        if (null != query) {
+            return query.toString();
         } else {
             return null;
         }
     }
 
     public boolean hasParameter(String name){
-        return queryString.hasParameter(name);
+        return query().hasParameter(name);
     }
 
     public String getParameter(String name) {
-        return queryString.getParameter(name);
+        return query().getParameter(name);
     }
 
     public void setParameter(String name, String value) {
-        queryString.setParameter(name, value);
+        query().setParameter(name, value);
     }
 
     public void addParameter(String name, String value) {
-        queryString.addParameter(name, value);
+        query().addParameter(name, value);
     }
 
     public String removeParameter(String name) {
-        return queryString.removeParameter(name);
+        return query().removeParameter(name);
     }
 
     public int parametersSize() {
-        return queryString.parametersSize();
+        return query().parametersSize();
     }
 
     public boolean isInContext(String context) {
-        return host == null && protocol == null && port == -1
-            && (path.startsWith(context + "/") || (!path.startsWith("/")));
+        if (null != getHost() || null != getProtocol() || port != -1) {
+            return false;
+        }
+        String path = getPath();
+        return (path.startsWith(context) && path.startsWith("/", context.length())) || !path.startsWith("/");
     }
 
     @Override
     public String toString() {
         StringBuilder url = new StringBuilder(length);
+        String protocol = getProtocol();
         if (null != protocol) {
             url.append(protocol);
         }
+        String host = getHost();
         if (null != host) {
             url.append(host);
         }
         if (port > 0) {
             url.append(':').append(port);
         }
-        url.append(path);
+        url.append(getPath());
         String queryString = getQueryString();
         if (null != queryString) {
             url.append('?').append(queryString);
@@ -209,15 +299,17 @@ public class PortalActionURL {
     }
 
     public Map<String, String[]> getParameters() {
-        return queryString.getParameters();
+        return query().getParameters();
     }
 
     public void setProtocol(String protocol) {
         this.protocol = protocol;
+        resolved(PROTOCOL);
     }
 
     public void setHost(String host) {
         this.host = host;
+        resolved(HOST);
     }
 
     public void setPort(int port) {
@@ -230,6 +322,7 @@ public class PortalActionURL {
 
     public void setPath(String path) {
         this.path = path;
+        resolved(PATH);
     }
 
     public void setUserInfo(String userInfo) {
@@ -237,11 +330,48 @@ public class PortalActionURL {
     }
 
     public void setParameters(Map<String, String[]> parameters) {
-        this.queryString.setParameters(parameters);
+        query().setParameters(parameters);
     }
 
     public void setQueryString(String queryString, boolean escape) {
         this.queryString = new PortalUrlQueryString(queryString, escape);
+        resolved(QUERY);
+    }
+
+    private PortalUrlQueryString query() {
+        if (0 != (unresolved & QUERY)) {
+            queryString = new PortalUrlQueryString(queryStart >= 0 ? source.substring(queryStart) : null, escape);
+            resolved(QUERY);
+        }
+        return queryString;
+    }
+
+    private void resolved(int component) {
+        unresolved &= ~component;
+        if (0 == unresolved) {
+            // Every component has been copied out of the URL
+            source = null;
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || '_' == c;
+    }
+
+    private static boolean isHostChar(char c) {
+        return isWordChar(c) || '.' == c || '-' == c;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isDelimiter(char c) {
+        return '/' == c || ':' == c || '?' == c;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return '\n' == c || '\r' == c || '\u0085' == c || '\u2028' == c || '\u2029' == c;
     }
 
 }
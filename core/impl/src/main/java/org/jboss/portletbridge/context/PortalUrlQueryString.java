@@ -24,32 +24,53 @@ package org.jboss.portletbridge.context;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
-import java.util.ArrayList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
+ * Parameters of a url query string.
+ * <p>
+ * The query string is kept as is until a parameter is first accessed. Parameters set from a {@link Map} are shared with
+ * that map until the first modification, when they are copied. The result of {@link #toString()} is cached until the
+ * parameters are modified.
+ * </p>
+ *
  * @author <a href="http://community.jboss.org/people/kenfinni">Ken Finnigan</a>
  */
 public class PortalUrlQueryString {
 
     private static final String NULL = "";
 
-    private Map<String, String[]> parameters;
+    // Value of a parameter with an empty value, as opposed to a parameter without a value
+    private static final String EMPTY = new String();
+
+    // Query string yet to be parsed into parameters
+    private String queryString;
+
+    private ParameterMap parameters;
+
+    // Parameters shared with the map they were set from, until modified
+    private Map<String, String[]> sharedParameters;
 
-    private boolean escape = false;
+    private final boolean escape;
+
+    private String cachedString;
+    private int cachedModCount = -1;
 
     public PortalUrlQueryString(String params) {
         this(params, false);
     }
 
     public PortalUrlQueryString(String params, boolean escape) {
-        setQueryString(params);
         this.escape = escape;
+        setQueryString(params);
     }
 
     @SuppressWarnings("deprecation")
@@ -74,12 +95,12 @@ public class PortalUrlQueryString {
         }
     }
 
-    public boolean hasParameter(String name){
-        return parameters.containsKey(name);
+    public boolean hasParameter(String name) {
+        return readParameters().containsKey(name);
     }
 
     public String getParameter(String name) {
-        String[] values = parameters.get(name);
+        String[] values = readParameters().get(name);
         if (null != values && values.length > 0) {
             return values[0];
         }
@@ -87,23 +108,29 @@ public class PortalUrlQueryString {
     }
 
     public void setParameter(String name, String value) {
-        parameters.put(name, new String[] { value });
+        ownParameters().put(name, new String[] { value });
     }
 
     public void addParameter(String name, String value) {
-        String[] values = parameters.get(name);
+        addParameter(ownParameters(), name, value);
+    }
+
+    private static void addParameter(ParameterMap params, String name, String value) {
+        String[] values = params.get(name);
         if (null != values && values.length > 0) {
-            List<String> valuesList = new ArrayList<String>(Arrays.asList(values));
-            valuesList.add(value);
-            values = valuesList.toArray(new String[valuesList.size()]);
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = value;
         } else {
             values = new String[] { value };
         }
-        parameters.put(name, values);
+        params.put(name, values);
     }
 
     public String removeParameter(String name) {
-        String[] values = parameters.remove(name);
+        if (!readParameters().containsKey(name)) {
+            return null;
+        }
+        String[] values = ownParameters().remove(name);
         if (null != values && values.length > 0) {
             return values[0];
         }
@@ -111,44 +138,117 @@ public class PortalUrlQueryString {
     }
 
     public int parametersSize() {
-        return parameters.size();
+        return readParameters().size();
     }
 
+    /**
+     * @return the parameters, which may be modified. Parameter values are not expected to be modified in place.
+     */
     public Map<String, String[]> getParameters() {
-        return parameters;
+        return ownParameters();
     }
 
     public void setParameters(Map<String, String[]> parameters) {
-        this.parameters = parameters;
+        this.queryString = null;
+        this.parameters = null;
+        this.sharedParameters = parameters;
+        if (null == parameters) {
+            this.parameters = new ParameterMap(0);
+        }
+        this.cachedModCount = -1;
     }
 
     public void setQueryString(String queryString) {
-        // Clear parameters map.
-        parameters = new LinkedHashMap<String, String[]>(30);
-        if (null != queryString && queryString.length() > 0) {
-            // PBR-290 - Added conversion to & for all encoded ampersands
-            queryString = queryString.replace("&amp;", "&");
-            String[] queryParams = queryString.split("&");
-            for (int i = 0; i < queryParams.length; i++) {
-                String par = queryParams[i];
+        this.queryString = null != queryString && queryString.length() > 0 ? queryString : null;
+        this.parameters = null;
+        this.sharedParameters = null;
+        this.cachedModCount = -1;
+    }
+
+    private Map<String, String[]> readParameters() {
+        if (null != sharedParameters) {
+            return sharedParameters;
+        }
+        return ownParameters();
+    }
+
+    private ParameterMap ownParameters() {
+        if (null == parameters) {
+            if (null != sharedParameters) {
+                parameters = new ParameterMap(sharedParameters.size());
+                parameters.putAll(sharedParameters);
+                sharedParameters = null;
+            } else {
+                parameters = parse(queryString);
+                queryString = null;
+            }
+        }
+        return parameters;
+    }
+
+    private ParameterMap parse(String queryString) {
+        ParameterMap params = new ParameterMap(0);
+        if (null == queryString) {
+            return params;
+        }
+
+        // PBR-290 - Encoded ampersands separate parameters too. Empty parameters at the end are ignored.
+        int length = queryString.length();
+        int emptyParams = 0;
+        int start = 0;
+        while (start <= length) {
+            int end = queryString.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end == start) {
+                emptyParams++;
+            } else {
+                for (; emptyParams > 0; emptyParams--) {
+                    addParameter(params, NULL, NULL);
+                }
+                String par = queryString.substring(start, end);
                 int eqIndex = par.indexOf('=');
                 if (eqIndex >= 0) {
-                    String value = par.substring(eqIndex + 1);
-                    String name = par.substring(0, eqIndex);
-                    addParameter(decodeURL(name), decodeURL(value));
+                    String name = decode(par.substring(0, eqIndex));
+                    String value = eqIndex + 1 < par.length() ? decode(par.substring(eqIndex + 1)) : EMPTY;
+                    addParameter(params, name, value);
                 } else {
-                    addParameter(par, NULL);
+                    addParameter(params, par, NULL);
                 }
             }
+            start = end + 1;
+            if (queryString.startsWith("amp;", start)) {
+                start += 4;
+            }
+        }
+        return params;
+    }
+
+    private String decode(String par) {
+        if (par.indexOf('%') < 0 && par.indexOf('+') < 0) {
+            return par;
         }
+        return decodeURL(par);
     }
 
     /**
      * @return the queryString
      */
     public String toString() {
-        // TODO - cache ?
-        if (null != parameters && parameters.size() > 0) {
+        if (null != sharedParameters) {
+            return buildQueryString(sharedParameters);
+        }
+        ParameterMap params = ownParameters();
+        if (cachedModCount != params.modCount) {
+            cachedString = buildQueryString(params);
+            cachedModCount = params.modCount;
+        }
+        return cachedString;
+    }
+
+    private String buildQueryString(Map<String, String[]> parameters) {
+        if (parameters.size() > 0) {
             StringBuilder queryString = new StringBuilder();
             for (Iterator<Entry<String, String[]>> iterator = parameters.entrySet().iterator(); iterator.hasNext();) {
                 Entry<String, String[]> param = iterator.next();
@@ -174,4 +274,216 @@ public class PortalUrlQueryString {
         }
     }
 
+    /**
+     * Insertion ordered map of parameters, held in arrays with an open addressing table of positions. A url rarely has
+     * more than a handful of parameters, so the initial capacity is small and lookups are a single probe most of the time.
+     */
+    static final class ParameterMap extends AbstractMap<String, String[]> {
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private String[] keys;
+        private String[][] values;
+        private int size;
+
+        // Position + 1 of each key, 0 for a free slot. Twice the capacity, so that it is never full.
+        private int[] table;
+
+        // Incremented on every modification, including replaced values
+        int modCount;
+        // Incremented when keys are added or removed, checked by iterators
+        private int structuralModCount;
+
+        private Set<Entry<String, String[]>> entrySet;
+
+        ParameterMap(int expectedSize) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < expectedSize) {
+                capacity <<= 1;
+            }
+            keys = new String[capacity];
+            values = new String[capacity][];
+            table = new int[capacity << 1];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public String[] get(Object key) {
+            int index = indexOf(key);
+            return index >= 0 ? values[index] : null;
+        }
+
+        @Override
+        public String[] put(String key, String[] value) {
+            int index = indexOf(key);
+            modCount++;
+            if (index >= 0) {
+                String[] old = values[index];
+                values[index] = value;
+                return old;
+            }
+            structuralModCount++;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size << 1);
+                values = Arrays.copyOf(values, size << 1);
+                table = new int[size << 2];
+                for (int i = 0; i < size; i++) {
+                    link(i);
+                }
+            }
+            keys[size] = key;
+            values[size] = value;
+            link(size++);
+            return null;
+        }
+
+        @Override
+        public String[] remove(Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return null;
+            }
+            String[] old = values[index];
+            removeAt(index);
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(table, 0);
+            size = 0;
+            modCount++;
+            structuralModCount++;
+        }
+
+        @Override
+        public Set<Entry<String, String[]>> entrySet() {
+            if (null == entrySet) {
+                entrySet = new EntrySet();
+            }
+            return entrySet;
+        }
+
+        private static int hash(Object key) {
+            int h = null == key ? 0 : key.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        private int indexOf(Object key) {
+            int mask = table.length - 1;
+            for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+                int position = table[slot];
+                if (0 == position) {
+                    return -1;
+                }
+                String candidate = keys[position - 1];
+                if (candidate == key || (null != key && key.equals(candidate))) {
+                    return position - 1;
+                }
+            }
+        }
+
+        private void link(int index) {
+            int mask = table.length - 1;
+            int slot = hash(keys[index]) & mask;
+            while (0 != table[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+
+        private void removeAt(int index) {
+            int moved = size - index - 1;
+            if (moved > 0) {
+                System.arraycopy(keys, index + 1, keys, index, moved);
+                System.arraycopy(values, index + 1, values, index, moved);
+            }
+            size--;
+            keys[size] = null;
+            values[size] = null;
+            // Positions have shifted, relink the remaining keys
+            Arrays.fill(table, 0);
+            for (int i = 0; i < size; i++) {
+                link(i);
+            }
+            modCount++;
+            structuralModCount++;
+        }
+
+        private final class EntrySet extends AbstractSet<Entry<String, String[]>> {
+
+            @Override
+            public Iterator<Entry<String, String[]>> iterator() {
+                return new Iterator<Entry<String, String[]>>() {
+                    private int next;
+                    private int current = -1;
+                    private int expectedModCount = structuralModCount;
+
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    public Entry<String, String[]> next() {
+                        if (expectedModCount != structuralModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        current = next++;
+                        return new ParameterEntry(keys[current], values[current]);
+                    }
+
+                    public void remove() {
+                        if (current < 0) {
+                            throw new IllegalStateException();
+                        }
+                        if (expectedModCount != structuralModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        removeAt(current);
+                        next = current;
+                        current = -1;
+                        expectedModCount = structuralModCount;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                ParameterMap.this.clear();
+            }
+        }
+
+        private final class ParameterEntry extends SimpleEntry<String, String[]> {
+
+            private static final long serialVersionUID = 2830213576472918420L;
+
+            ParameterEntry(String key, String[] value) {
+                super(key, value);
+            }
+
+            @Override
+            public String[] setValue(String[] value) {
+                put(getKey(), value);
+                return super.setValue(value);
+            }
+        }
+    }
 }
@@ -35,6 +35,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -61,12 +62,15 @@ import javax.portlet.faces.Bridge;
 import javax.portlet.faces.BridgeDefaultViewNotSpecifiedException;
 import javax.servlet.http.Cookie;
 
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
 import org.jboss.portletbridge.bridge.controller.BridgeController;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger;
 import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
 import org.jboss.portletbridge.bridge.scope.BridgeRequestScope;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeOverlay;
 import org.jboss.portletbridge.context.map.EnumerationIterator;
+import org.jboss.portletbridge.util.LRUMap;
 
 /**
  * Version of the {@link ExternalContext} for a Portlet request.
@@ -84,6 +88,17 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
     public static final String WSRP_REWRITE_WITH_QUESTION = WSRP_REWRITE + "?";
     public static final String NAMESPACE_PREFIX = "pb";
 
+    /**
+     * Maximum number of distinct urls, per method, that are remembered once encoded within a request.
+     */
+    private static final int ENCODED_URL_CACHE_SIZE = 128;
+
+    /**
+     * Maximum number of encoded action urls whose parameters are kept for redirect(). A redirect targets a url encoded
+     * shortly before it, by navigation, so only the most recently used ones are kept.
+     */
+    private static final int REDIRECT_URL_PARAMETERS_SIZE = 16;
+
     private String namespace;
     private String servletPath = null;
     private String pathInfo = null;
@@ -92,10 +107,17 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
     private String servletMappingPrefix;
     private String viewId;
     private boolean hasNavigationRedirect = false;
-    protected final Map<String, Map<String, String[]>> encodedActionUrlParameters = new HashMap<String, Map<String, String[]>>();
+    protected final Map<String, Map<String, String[]>> encodedActionUrlParameters =
+        new LRUMap<String, Map<String, String[]>>(REDIRECT_URL_PARAMETERS_SIZE);
     private Map<String, String[]> extraRequestParameters = new HashMap<String, String[]>();
     protected BridgeContext bridgeContext;
 
+    // Urls encoded so far in this request, keyed by input url, which also determines the escaping mode
+    private Map<String, EncodedUrl> encodedActionUrls;
+    private Map<String, EncodedUrl> encodedResourceUrls;
+    private UIViewRoot encodedUrlsViewRoot;
+    private String encodedUrlsViewId;
+
     protected String acceptHeader;
     protected String acceptLangHeader;
     protected String contentType;
@@ -271,11 +293,22 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
         } else if (SERVLET_PATH_ATTRIBUTE.equals(name)) {
             return getRequestServletPath();
         } else {
-            return getPortletRequest().getAttribute(name);
+            Object value = getPortletRequest().getAttribute(name);
+            if (null == value) {
+                BridgeRequestScopeOverlay overlay = BridgeRequestScopeOverlay.getInstance(bridgeContext);
+                if (null != overlay) {
+                    value = overlay.getAttribute(name);
+                }
+            }
+            return value;
         }
     }
 
     protected Enumeration<String> getRequestAttributeNames() {
+        BridgeRequestScopeOverlay overlay = BridgeRequestScopeOverlay.getInstance(bridgeContext);
+        if (null != overlay) {
+            return overlay.getAttributeNames(getPortletRequest().getAttributeNames());
+        }
         return getPortletRequest().getAttributeNames();
     }
 
@@ -528,6 +561,7 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
 
     protected void removeRequestAttribute(String name) {
         getPortletRequest().removeAttribute(name);
+        requestAttributeRemoved(name);
     }
 
     protected void removeSessionAttribute(String name) {
@@ -544,6 +578,16 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
 
     protected void setRequestAttribute(String name, Object value) {
         getPortletRequest().setAttribute(name, value);
+        if (null == value) {
+            requestAttributeRemoved(name);
+        }
+    }
+
+    private void requestAttributeRemoved(String name) {
+        BridgeRequestScopeOverlay overlay = BridgeRequestScopeOverlay.getInstance(bridgeContext);
+        if (null != overlay) {
+            overlay.attributeRemoved(name);
+        }
     }
 
     protected void setSessionAttribute(String name, Object value) {
@@ -864,12 +908,29 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
             getLogger().log(Level.WARNING, "Unable to encode ActionURL for url=[null]");
             return null;
         }
-        String actionUrl = null;
-        Map<String, String[]> actionParameters;
 
         // Append Client Window Id if required
         url = bridgeContext.appendClientWindowId(url);
 
+        Map<String, EncodedUrl> cache = getEncodedUrlCache(true);
+        EncodedUrl encoded = null != cache ? cache.get(url) : null;
+        if (null == encoded) {
+            encoded = resolveActionUrl(url);
+            if (null != cache) {
+                cache.put(url, encoded);
+            }
+        }
+        if (null != encoded.parameters) {
+            // Store url parameters to reuse in redirect()
+            encodedActionUrlParameters.put(encoded.url, encoded.parameters);
+        }
+        return encoded.url;
+    }
+
+    private EncodedUrl resolveActionUrl(String url) {
+        String actionUrl = null;
+        Map<String, String[]> actionParameters;
+
         if (url.startsWith("#")) {
             actionUrl = url;
             actionParameters = Collections.emptyMap();
@@ -936,7 +997,7 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
                             portalUrl.setHost("//" + request.getServerName());
                             portalUrl.setPort(request.getServerPort());
                             String directUrl = portalUrl.toString();
-                            return escapeUrl(escapedUrl, directUrl);
+                            return new EncodedUrl(escapeUrl(escapedUrl, directUrl), null);
                         }
                     }
 
@@ -967,9 +1028,7 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
                 actionParameters = Collections.emptyMap();
             }
         }
-        // Store url parameters to reuse in redirect()
-        encodedActionUrlParameters.put(actionUrl, actionParameters);
-        return actionUrl;
+        return new EncodedUrl(actionUrl, actionParameters);
     }
 
     @Override
@@ -999,6 +1058,50 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
     }
 
     public String encodeResourceURL(String url) {
+        Map<String, EncodedUrl> cache = null != url ? getEncodedUrlCache(false) : null;
+        if (null != cache) {
+            EncodedUrl encoded = cache.get(url);
+            if (null != encoded) {
+                return encoded.url;
+            }
+        }
+        String resourceUrl = null != url ? encodeResourceUrlTemplate(url) : null;
+        if (null == resourceUrl) {
+            resourceUrl = resolveResourceUrl(url);
+        }
+        if (null != cache) {
+            cache.put(url, new EncodedUrl(resourceUrl, null));
+        }
+        return resourceUrl;
+    }
+
+    /**
+     * Encode a JSF resource url from the parameters it resolved to when first encoded, skipping parsing and
+     * normalization of its path.
+     *
+     * @return the encoded url, or null if the url has not been encoded as a JSF resource before
+     */
+    private String encodeResourceUrlTemplate(String url) {
+        Map<String, String[]> template = getResourceUrlTemplates().get(url);
+        if (null == template) {
+            return null;
+        }
+        boolean escapedUrl = isStrictEscaped(url);
+        try {
+            PortalActionURL portalUrl = new PortalActionURL("", escapedUrl);
+            portalUrl.setPath(null);
+            portalUrl.setParameters(template);
+            return createResourceUrl(portalUrl, escapedUrl);
+        } catch (MalformedURLException e) {
+            throw new FacesException(e);
+        }
+    }
+
+    private Map<String, Map<String, String[]>> getResourceUrlTemplates() {
+        return BridgeRuntime.getInstance(bridgeContext.getBridgeConfig()).getResourceUrlTemplates();
+    }
+
+    private String resolveResourceUrl(String url) {
         try {
             boolean escapedUrl = isStrictEscaped(url);
             PortalActionURL portalUrl = new PortalActionURL(url, escapedUrl);
@@ -1029,6 +1132,10 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
                 // namespace as URL parameter, to restore portletbridge session.
                 // Remove context path from resource ID.
 
+                // Only urls that don't depend on the current view can be encoded from a template
+                boolean templated = path.startsWith("/") && !portalUrl.hasParameter(Bridge.BACK_LINK)
+                    && !portalUrl.hasParameter(Bridge.NONFACES_TARGET_PATH_PARAMETER);
+
                 portalUrl.removeParameter(Bridge.VIEW_LINK);
                 encodeBackLink(portalUrl);
 
@@ -1063,6 +1170,10 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
                 } else if (portalUrl.getPath().contains(ResourceHandler.RESOURCE_IDENTIFIER)) {
                     // It's a JSF Resource
                     setupJSFResourceParameters(portalUrl);
+                    if (templated) {
+                        getResourceUrlTemplates().put(url,
+                            Collections.unmodifiableMap(new LinkedHashMap<String, String[]>(portalUrl.getParameters())));
+                    }
                     url = createResourceUrl(portalUrl, escapedUrl);
                 } else if (null != facesViewId) {
                     portalUrl.setParameter(Bridge.FACES_VIEW_ID_PARAMETER, facesViewId);
@@ -1088,15 +1199,10 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
                 resourceName = resourceName.substring(slash + 1);
             }
 
-            List<String> servletMappings = BridgeContext.getCurrentInstance().getBridgeConfig().getFacesServletMappings();
-            //TODO Handle this nicer? Maybe cache extension mappings on startup
-            for (String mapping : servletMappings) {
-                if (mapping.startsWith("*.")) {
-                    mapping = mapping.substring(1);
-                    if (resourceName.endsWith(mapping)) {
-                        resourceName = resourceName.substring(0, resourceName.indexOf(mapping));
-                        break;
-                    }
+            for (String suffix : BridgeRuntime.getInstance(bridgeContext.getBridgeConfig()).getFacesServletSuffixMappings()) {
+                if (resourceName.endsWith(suffix)) {
+                    resourceName = resourceName.substring(0, resourceName.indexOf(suffix));
+                    break;
                 }
             }
 
@@ -1227,13 +1333,12 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
             boolean isPrefixMapped = pathInContext.startsWith(getServletMappingPrefix());
 
             if (!isPrefixMapped) {
-                for(String mapping : mappings) {
-                    if (mapping.startsWith("*.")) {
-                        // Check for Suffix Mapping
-                        isPrefixMapped = pathInContext.endsWith(mapping.substring(2));
-                        if (isPrefixMapped) {
-                            return isPrefixMapped;
-                        }
+                for (String suffix : BridgeRuntime.getInstance(bridgeContext.getBridgeConfig()).getFacesServletSuffixMappings()) {
+                    // Check for Suffix Mapping, without the leading '.'
+                    int extensionLength = suffix.length() - 1;
+                    if (pathInContext.regionMatches(pathInContext.length() - extensionLength, suffix, 1,
+                        extensionLength)) {
+                        return true;
                     }
                 }
             }
@@ -1366,6 +1471,54 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
         }
     }
 
+    /**
+     * Whether urls encoded by {@link #encodeActionURL(String)} and {@link #encodeResourceURL(String)} may be reused for
+     * the rest of the request. Only safe where portlet mode, window state and render parameters cannot change during the
+     * request, and encoding a url has no side effect on the response.
+     *
+     * @return false, by default
+     */
+    protected boolean isEncodedUrlCacheEnabled() {
+        return false;
+    }
+
+    /**
+     * Discard the urls encoded so far in this request, as the portlet mode, window state or render parameters they were
+     * encoded against have changed.
+     */
+    protected void invalidateEncodedUrls() {
+        encodedActionUrls = null;
+        encodedResourceUrls = null;
+    }
+
+    private Map<String, EncodedUrl> getEncodedUrlCache(boolean action) {
+        if (!isEncodedUrlCacheEnabled()) {
+            return null;
+        }
+
+        // Relative paths and back links are resolved against the current view
+        FacesContext facesContext = FacesContext.getCurrentInstance();
+        UIViewRoot viewRoot = null != facesContext ? facesContext.getViewRoot() : null;
+        String currentViewId = null != viewRoot ? viewRoot.getViewId() : null;
+        if (viewRoot != encodedUrlsViewRoot
+            || (currentViewId != encodedUrlsViewId && (null == currentViewId || !currentViewId.equals(encodedUrlsViewId)))) {
+            invalidateEncodedUrls();
+            encodedUrlsViewRoot = viewRoot;
+            encodedUrlsViewId = currentViewId;
+        }
+
+        if (action) {
+            if (null == encodedActionUrls) {
+                encodedActionUrls = new LRUMap<String, EncodedUrl>(ENCODED_URL_CACHE_SIZE);
+            }
+            return encodedActionUrls;
+        }
+        if (null == encodedResourceUrls) {
+            encodedResourceUrls = new LRUMap<String, EncodedUrl>(ENCODED_URL_CACHE_SIZE);
+        }
+        return encodedResourceUrls;
+    }
+
     protected String encodePortletUrl(BaseURL portletURL, boolean escape) {
         StringWriter out = new StringWriter();
         try {
@@ -1388,4 +1541,14 @@ public abstract class PortletExternalContextImpl extends AbstractExternalContext
 
     protected abstract String createActionUrl(PortalActionURL url, boolean escape);
 
+    private static final class EncodedUrl {
+        final String url;
+        // Parameters to record for redirect(), or null if none should be
+        final Map<String, String[]> parameters;
+
+        EncodedUrl(String url, Map<String, String[]> parameters) {
+            this.url = url;
+            this.parameters = parameters;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.el;
+
+import javax.el.ELContextEvent;
+import javax.el.ELContextListener;
+import javax.faces.application.Application;
+
+import org.jboss.portletbridge.bridge.context.BridgeContext;
+
+/**
+ * Application level {@link ELContextListener}, registered once with the Faces {@link Application}. It passes each
+ * {@link ELContextEvent} on to the {@link BridgeContext} bound to the current thread, if that is an
+ * {@link ELContextListener} itself, so that the portlet handling the request can add its PortletConfig to the
+ * ELContext.
+ *
+ * @author kenfinnigan
+ */
+public final class BridgeELContextListener implements ELContextListener {
+
+    private static final BridgeELContextListener INSTANCE = new BridgeELContextListener();
+
+    private BridgeELContextListener() {
+    }
+
+    /**
+     * Register the listener with the given {@link Application}, unless it has already been.
+     *
+     * @param application
+     */
+    public static void register(Application application) {
+        synchronized (INSTANCE) {
+            ELContextListener[] listeners = application.getELContextListeners();
+            if (null != listeners) {
+                for (ELContextListener listener : listeners) {
+                    if (listener == INSTANCE) {
+                        return;
+                    }
+                }
+            }
+            application.addELContextListener(INSTANCE);
+        }
+    }
+
+    /**
+     * @see javax.el.ELContextListener#contextCreated(javax.el.ELContextEvent)
+     */
+    public void contextCreated(ELContextEvent ece) {
+        BridgeContext bridgeContext = BridgeContext.getCurrentInstance();
+        if (bridgeContext instanceof ELContextListener) {
+            ((ELContextListener) bridgeContext).contextCreated(ece);
+        }
+    }
+}
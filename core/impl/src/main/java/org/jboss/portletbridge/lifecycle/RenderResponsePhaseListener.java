@@ -20,13 +20,14 @@ public class RenderResponsePhaseListener implements PhaseListener {
 
         // Only process the Event if it is for the FacesContext that we're currently working with.
         // Needed as Lifecycle is not thread safe and there is only one for a single web app.
-        if (context != FacesContext.getCurrentInstance() || !BridgeUtil.isPortletRequest()) {
+        if (context != FacesContext.getCurrentInstance()) {
             return;
         }
 
-        Object portletPhase = context.getExternalContext().getRequestMap().get(Bridge.PORTLET_LIFECYCLE_PHASE);
+        // Null when not a portlet request
+        Bridge.PortletPhase portletPhase = BridgeUtil.getPortletRequestPhase();
 
-        if (Bridge.PortletPhase.RENDER_PHASE.equals(portletPhase)) {
+        if (Bridge.PortletPhase.RENDER_PHASE == portletPhase) {
             context.renderResponse();
         }
     }
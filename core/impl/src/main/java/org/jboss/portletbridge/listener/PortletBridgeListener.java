@@ -25,7 +25,17 @@ import com.sun.faces.application.ApplicationAssociate;
 import com.sun.faces.config.ConfigManager;
 import com.sun.faces.mgbean.BeanManager;
 import com.sun.faces.spi.InjectionProvider;
+import org.jboss.portletbridge.bridge.config.BridgeRuntime;
 import org.jboss.portletbridge.bridge.context.BridgeContext;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger;
+import org.jboss.portletbridge.bridge.logger.BridgeLogger.Level;
+import org.jboss.portletbridge.bridge.scope.BridgePreDestroyMetadata;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeMetrics;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeReaper;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeRegistry;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeTeardown;
+import org.jboss.portletbridge.bridge.scope.ExcludedAttributeMatcher;
 
 import javax.faces.context.FacesContext;
 import javax.servlet.ServletContext;
@@ -34,8 +44,6 @@ import javax.servlet.ServletContextListener;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionEvent;
 import javax.servlet.http.HttpSessionListener;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Enumeration;
 
 /**
@@ -50,7 +58,7 @@ public class PortletBridgeListener implements ServletContextListener, HttpSessio
 
     private ServletContext servletContext;
     private ApplicationAssociate applicationAssociate;
-    private InjectionProvider injectionProvider;
+    private volatile InjectionProvider injectionProvider;
 
     public PortletBridgeListener() {
         INSTANCE = this;
@@ -71,9 +79,37 @@ public class PortletBridgeListener implements ServletContextListener, HttpSessio
                     servletContext.getAttribute(beanName));
         }
 
+        Object reaper = servletContext.getAttribute(BridgeRequestScopeReaper.REAPER_ATTRIBUTE);
+        if (reaper instanceof BridgeRequestScopeReaper) {
+            ((BridgeRequestScopeReaper) reaper).shutdown();
+            servletContext.removeAttribute(BridgeRequestScopeReaper.REAPER_ATTRIBUTE);
+        }
+
+        Object registry = servletContext.getAttribute(BridgeRequestScopeRegistry.REGISTRY_ATTRIBUTE);
+        if (registry instanceof BridgeRequestScopeRegistry) {
+            ((BridgeRequestScopeRegistry) registry).shutdown();
+            servletContext.removeAttribute(BridgeRequestScopeRegistry.REGISTRY_ATTRIBUTE);
+        }
+
+        Object teardown = servletContext.getAttribute(BridgeRequestScopeTeardown.TEARDOWN_ATTRIBUTE);
+        if (teardown instanceof BridgeRequestScopeTeardown) {
+            ((BridgeRequestScopeTeardown) teardown).shutdown();
+            servletContext.removeAttribute(BridgeRequestScopeTeardown.TEARDOWN_ATTRIBUTE);
+        }
+
+        Object metrics = servletContext.getAttribute(BridgeRequestScopeMetrics.METRICS_ATTRIBUTE);
+        if (metrics instanceof BridgeRequestScopeMetrics) {
+            ((BridgeRequestScopeMetrics) metrics).shutdown();
+            servletContext.removeAttribute(BridgeRequestScopeMetrics.METRICS_ATTRIBUTE);
+        }
+
         this.servletContext = null;
         this.applicationAssociate = null;
         INSTANCE = null;
+
+        BridgePreDestroyMetadata.clearCache();
+        ExcludedAttributeMatcher.clearCache();
+        BridgeRuntime.invalidateAll();
     }
 
     @Override
@@ -139,22 +175,46 @@ public class PortletBridgeListener implements ServletContextListener, HttpSessio
                 if (null != beanManager && beanManager.isManaged(beanName)) {
                     // Check whether class has annotations present to determine whether JSF BeanBuilder
                     // will call invokePreDestroy() on InjectionProvider. If it won't, we do directly.
-                    if (scanForAnnotations(bean.getClass())) {
+                    if (BridgePreDestroyMetadata.forClass(bean.getClass()).hasAnnotatedMembers()) {
                         beanManager.destroy(beanName, bean);
+                        destroyCalled = true;
                     } else {
-                        getInjectionProvider().invokePreDestroy(bean);
+                        InjectionProvider provider = getInjectionProvider();
+                        if (null != provider) {
+                            provider.invokePreDestroy(bean);
+                            destroyCalled = true;
+                        } else {
+                            log("Unable to call predestroy on managed bean " + beanName
+                                + ", no InjectionProvider available", null);
+                        }
                     }
-                    destroyCalled = true;
                 }
             }
         } catch (Exception e) {
             String className = e.getClass().getName();
-            BridgeContext.log("Error calling predestroy on instance of: " + className, e);
+            log("Error calling predestroy on instance of: " + className, e);
         }
 
         return destroyCalled;
     }
 
+    /**
+     * Log to the BridgeContext of the request, or to the bridge logger when called off the request thread, as when
+     * scopes are cleared in the background.
+     */
+    private static void log(String message, Throwable t) {
+        if (null != BridgeContext.getCurrentInstance()) {
+            BridgeContext.log(message, t);
+        } else {
+            BridgeLogger logger = BridgeLoggerFactoryImpl.getLogger(PortletBridgeListener.class.getName());
+            if (null != t) {
+                logger.log(Level.ERROR, message, t);
+            } else {
+                logger.log(Level.WARNING, message);
+            }
+        }
+    }
+
     private ApplicationAssociate getAssociate() {
         if (null == applicationAssociate) {
             applicationAssociate = ApplicationAssociate.getInstance(servletContext);
@@ -163,43 +223,30 @@ public class PortletBridgeListener implements ServletContextListener, HttpSessio
         return applicationAssociate;
     }
 
+    /**
+     * Resolve the InjectionProvider used to call preDestroy on managed beans, while the calling request thread has a
+     * FacesContext, so that beans can also be destroyed from background threads.
+     */
+    public void resolveInjectionProvider() {
+        getInjectionProvider();
+    }
+
     private InjectionProvider getInjectionProvider() {
         if (null == injectionProvider) {
             FacesContext context = FacesContext.getCurrentInstance();
             if (null != context) {
                 injectionProvider = (InjectionProvider) context.getAttributes().get(ConfigManager.INJECTION_PROVIDER_KEY);
             }
-        }
-
-        return injectionProvider;
-    }
-
-    private boolean scanForAnnotations(Class<?> clazz) {
-        if (clazz != null) {
-            while (clazz != Object.class) {
-                Field[] fields = clazz.getDeclaredFields();
-                if (fields != null) {
-                    for (Field field : fields) {
-                        if (field.getAnnotations().length > 0) {
-                            return true;
-                        }
-                    }
+            if (null == injectionProvider) {
+                // No FacesContext on this thread, or the provider was not kept in it
+                ApplicationAssociate associate = getAssociate();
+                if (null != associate) {
+                    injectionProvider = associate.getInjectionProvider();
                 }
-
-                Method[] methods = clazz.getDeclaredMethods();
-                if (methods != null) {
-                    for (Method method : methods) {
-                        if (method.getDeclaredAnnotations().length > 0) {
-                            return true;
-                        }
-                    }
-                }
-
-                clazz = clazz.getSuperclass();
             }
         }
 
-        return false;
+        return injectionProvider;
     }
 
     public static PortletBridgeListener getCurrentInstance() {
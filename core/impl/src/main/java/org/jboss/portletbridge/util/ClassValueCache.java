@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lazily computes and caches a value per {@link Class}, in the manner of <code>java.lang.ClassValue</code> which is not
+ * available on every JDK supported by the Bridge. Lookups of an already computed value never block.
+ * <p>
+ * Values are strongly referenced, so {@link #clear()} must be called when the application is undeployed to release the
+ * classes it loaded.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public abstract class ClassValueCache<T> {
+
+    private final ConcurrentMap<Class<?>, T> values = new ConcurrentHashMap<Class<?>, T>();
+
+    /**
+     * Compute the value to cache for the given class. May be called more than once for the same class by concurrent
+     * lookups, in which case the first value computed is kept.
+     *
+     * @param type
+     *            Class to compute the value for
+     * @return Value for the class, which must not be null
+     */
+    protected abstract T computeValue(Class<?> type);
+
+    public T get(Class<?> type) {
+        T value = values.get(type);
+        if (null == value) {
+            value = computeValue(type);
+            T existing = values.putIfAbsent(type, value);
+            if (null != existing) {
+                value = existing;
+            }
+        }
+        return value;
+    }
+
+    public void remove(Class<?> type) {
+        values.remove(type);
+    }
+
+    public void clear() {
+        values.clear();
+    }
+}
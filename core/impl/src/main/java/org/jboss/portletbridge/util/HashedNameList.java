@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of names, such as a snapshot of request attribute names, with constant time {@link #contains(Object)}
+ * and {@link #indexOf(Object)}. Names are held in an array, indexed by an open addressing hash table of their
+ * positions.
+ * <p>
+ * Being immutable, an instance can be shared with every consumer of the snapshot instead of each making its own copy
+ * to look names up in.
+ * </p>
+ *
+ * @author kenfinnigan
+ */
+public final class HashedNameList extends AbstractList<String> implements RandomAccess {
+
+    private static final HashedNameList EMPTY = new HashedNameList(new String[0], 0);
+
+    private final String[] names;
+    private final int size;
+    // Position + 1 of the first occurrence of each name, 0 for a free slot
+    private final int[] table;
+    private final int nullIndex;
+
+    private HashedNameList(String[] names, int size) {
+        this.names = names;
+        this.size = size;
+
+        // Keep the load factor at or below .5 so that probe sequences stay short
+        int capacity = 2;
+        while (capacity < size * 2) {
+            capacity <<= 1;
+        }
+        this.table = new int[capacity];
+
+        int firstNull = -1;
+        for (int i = 0; i < size; i++) {
+            String name = names[i];
+            if (null == name) {
+                if (firstNull < 0) {
+                    firstNull = i;
+                }
+            } else if (find(name) < 0) {
+                int slot = hash(name) & (capacity - 1);
+                while (0 != table[slot]) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                table[slot] = i + 1;
+            }
+        }
+        this.nullIndex = firstNull;
+    }
+
+    /**
+     * @return an empty list
+     */
+    public static HashedNameList empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a list of the remaining elements of the enumeration.
+     *
+     * @param names
+     *            may be null
+     * @return list of the names
+     */
+    public static HashedNameList of(Enumeration<String> names) {
+        if (null == names || !names.hasMoreElements()) {
+            return EMPTY;
+        }
+        String[] array = new String[16];
+        int size = 0;
+        while (names.hasMoreElements()) {
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size * 2);
+            }
+            array[size++] = names.nextElement();
+        }
+        return new HashedNameList(array, size);
+    }
+
+    /**
+     * Create a list of the given names, or return them as is if already a {@link HashedNameList}.
+     *
+     * @param names
+     *            may be null
+     * @return list of the names
+     */
+    public static HashedNameList copyOf(Collection<String> names) {
+        if (names instanceof HashedNameList) {
+            return (HashedNameList) names;
+        }
+        if (null == names || names.isEmpty()) {
+            return EMPTY;
+        }
+        String[] array = names.toArray(new String[names.size()]);
+        return new HashedNameList(array, array.length);
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return names[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (null == o) {
+            return nullIndex;
+        }
+        if (!(o instanceof String)) {
+            return -1;
+        }
+        return find((String) o);
+    }
+
+    private int find(String name) {
+        int mask = table.length - 1;
+        for (int slot = hash(name) & mask;; slot = (slot + 1) & mask) {
+            int position = table[slot];
+            if (0 == position) {
+                return -1;
+            }
+            if (name.equals(names[position - 1])) {
+                return position - 1;
+            }
+        }
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.faces.FacesException;
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIViewRoot;
+import javax.faces.context.FacesContext;
+
+/**
+ * Holds a view retained in the Bridge Request Scope as saved state, in place of the live {@link UIViewRoot}. The
+ * component tree is recorded as its structure and the result of {@link UIComponent#processSaveState(FacesContext)},
+ * the same full state the JSF StateManager saves when partial state saving is disabled, and is rebuilt from them on
+ * restore. The state can optionally be serialized and compressed, trading restore time for less heap per scope.
+ *
+ * @author kenfinnigan
+ */
+public final class ViewStateWrapper implements Serializable {
+
+    private static final long serialVersionUID = 1186485269351819779L;
+
+    private final TreeNode structure;
+    private final Object state;
+    private final byte[] compressedState;
+
+    private ViewStateWrapper(TreeNode structure, Object state, byte[] compressedState) {
+        this.structure = structure;
+        this.state = state;
+        this.compressedState = compressedState;
+    }
+
+    /**
+     * Save the state of a view. Full state is saved for each component, so components marked as holding their initial
+     * state are unmarked while saving and marked again afterwards, whether or not the state could be saved. The view
+     * itself is left as it was.
+     *
+     * @param facesContext
+     *            current FacesContext
+     * @param viewRoot
+     *            view to save
+     * @param compress
+     *            whether to serialize and compress the saved state
+     * @return saved view
+     * @throws IOException
+     *             if the state could not be serialized
+     */
+    public static ViewStateWrapper saveView(FacesContext facesContext, UIViewRoot viewRoot, boolean compress)
+        throws IOException {
+        List<UIComponent> marked = new ArrayList<UIComponent>();
+        try {
+            TreeNode structure = captureStructure(viewRoot, null, marked);
+            Object state = viewRoot.processSaveState(facesContext);
+
+            if (!compress) {
+                return new ViewStateWrapper(structure, state, null);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+            ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(bytes));
+            try {
+                out.writeObject(structure);
+                out.writeObject(state);
+            } finally {
+                out.close();
+            }
+            return new ViewStateWrapper(null, null, bytes.toByteArray());
+        } finally {
+            for (UIComponent component : marked) {
+                component.markInitialState();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the saved view, creating each component and restoring its state. System events are not published while
+     * the tree is being rebuilt.
+     *
+     * @param facesContext
+     *            current FacesContext
+     * @return restored view
+     */
+    public UIViewRoot restoreView(FacesContext facesContext) {
+        TreeNode treeStructure = structure;
+        Object treeState = state;
+
+        if (null != compressedState) {
+            try {
+                ObjectInputStream in = new ContextObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(
+                    compressedState)));
+                try {
+                    treeStructure = (TreeNode) in.readObject();
+                    treeState = in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new FacesException("Unable to read saved state of view", e);
+            } catch (ClassNotFoundException e) {
+                throw new FacesException("Unable to read saved state of view", e);
+            }
+        }
+
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (null == loader) {
+            loader = ViewStateWrapper.class.getClassLoader();
+        }
+        boolean processingEvents = facesContext.isProcessingEvents();
+        facesContext.setProcessingEvents(false);
+        try {
+            UIViewRoot viewRoot = (UIViewRoot) buildComponent(treeStructure, loader);
+            viewRoot.processRestoreState(facesContext, treeState);
+            return viewRoot;
+        } finally {
+            facesContext.setProcessingEvents(processingEvents);
+        }
+    }
+
+    /**
+     * Number of bytes held for the compressed state, or -1 if the state is not compressed.
+     */
+    public int getCompressedSize() {
+        return null != compressedState ? compressedState.length : -1;
+    }
+
+    /**
+     * Record the class and id of a component and its non transient children and facets, in the order in which
+     * {@link UIComponent#processSaveState(FacesContext)} saves their state. Components marked as holding their initial
+     * state are unmarked and added to <code>marked</code>.
+     */
+    private static TreeNode captureStructure(UIComponent component, String facetName, List<UIComponent> marked) {
+        if (component.initialStateMarked()) {
+            component.clearInitialState();
+            marked.add(component);
+        }
+
+        List<TreeNode> children = null;
+        if (component.getChildCount() > 0) {
+            for (UIComponent child : component.getChildren()) {
+                if (!child.isTransient()) {
+                    if (null == children) {
+                        children = new ArrayList<TreeNode>(component.getChildCount());
+                    }
+                    children.add(captureStructure(child, null, marked));
+                }
+            }
+        }
+        if (component.getFacetCount() > 0) {
+            for (Map.Entry<String, UIComponent> facet : component.getFacets().entrySet()) {
+                if (!facet.getValue().isTransient()) {
+                    if (null == children) {
+                        children = new ArrayList<TreeNode>(component.getFacetCount());
+                    }
+                    children.add(captureStructure(facet.getValue(), facet.getKey(), marked));
+                }
+            }
+        }
+
+        return new TreeNode(component.getClass().getName(), component.getId(), facetName,
+            null != children ? children.toArray(new TreeNode[children.size()]) : null);
+    }
+
+    private static UIComponent buildComponent(TreeNode node, ClassLoader loader) {
+        UIComponent component;
+        try {
+            component = (UIComponent) Class.forName(node.className, true, loader).newInstance();
+        } catch (Exception e) {
+            throw new FacesException("Unable to create component " + node.className + " of saved view", e);
+        }
+        component.setId(node.id);
+
+        if (null != node.children) {
+            for (TreeNode child : node.children) {
+                UIComponent childComponent = buildComponent(child, loader);
+                if (null == child.facetName) {
+                    component.getChildren().add(childComponent);
+                } else {
+                    component.getFacets().put(child.facetName, childComponent);
+                }
+            }
+        }
+        return component;
+    }
+
+    private static final class TreeNode implements Serializable {
+
+        private static final long serialVersionUID = 1592059538740205833L;
+
+        private final String className;
+        private final String id;
+        private final String facetName;
+        private final TreeNode[] children;
+
+        TreeNode(String className, String id, String facetName, TreeNode[] children) {
+            this.className = className;
+            this.id = id;
+            this.facetName = facetName;
+            this.children = children;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.jboss.portletbridge.bridge.factory.BridgeContextFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeContextFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRuntime} is held per {@link BridgeConfig} until it is released or invalidated.
+ */
+public class BridgeRuntimeTest {
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeContextFactory.class, BridgeContextFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void runtimeIsHeldPerConfig() {
+        BridgeConfig bridgeConfig = new BridgeConfigImpl();
+        BridgeRuntime runtime = BridgeRuntime.getInstance(bridgeConfig);
+
+        assertSame(runtime, BridgeRuntime.getInstance(bridgeConfig));
+        assertNotSame(runtime, BridgeRuntime.getInstance(new BridgeConfigImpl()));
+        assertSame(runtime.getBridgeContextFactory(), runtime.getBridgeContextFactory());
+    }
+
+    @Test
+    public void releaseRemovesRuntime() {
+        BridgeConfig bridgeConfig = new BridgeConfigImpl();
+        BridgeRuntime runtime = BridgeRuntime.getInstance(bridgeConfig);
+
+        BridgeRuntime.release(bridgeConfig);
+        assertNull(bridgeConfig.getAttributes().get(BridgeRuntime.RUNTIME_ATTRIBUTE));
+        assertNotSame(runtime, BridgeRuntime.getInstance(bridgeConfig));
+    }
+
+    @Test
+    public void invalidateAllReplacesRuntime() {
+        BridgeConfig bridgeConfig = new BridgeConfigImpl();
+        BridgeRuntime runtime = BridgeRuntime.getInstance(bridgeConfig);
+
+        BridgeRuntime.invalidateAll();
+        BridgeRuntime replaced = BridgeRuntime.getInstance(bridgeConfig);
+        assertNotSame(runtime, replaced);
+        assertSame(replaced, BridgeRuntime.getInstance(bridgeConfig));
+    }
+
+    @Test
+    public void resourceUrlTemplatesAreHeldPerConfig() {
+        BridgeConfig bridgeConfig = new BridgeConfigImpl();
+        Map<String, Map<String, String[]>> templates = BridgeRuntime.getInstance(bridgeConfig).getResourceUrlTemplates();
+        templates.put("/app/javax.faces.resource/jsf.js.xhtml?ln=javax.faces",
+            Collections.singletonMap("ln", new String[] { "javax.faces" }));
+
+        assertSame(templates, BridgeRuntime.getInstance(bridgeConfig).getResourceUrlTemplates());
+        assertTrue(BridgeRuntime.getInstance(new BridgeConfigImpl()).getResourceUrlTemplates().isEmpty());
+
+        BridgeRuntime.invalidateAll();
+        assertTrue(BridgeRuntime.getInstance(bridgeConfig).getResourceUrlTemplates().isEmpty());
+    }
+
+    @Test
+    public void suffixMappingsDerivedFromServletMappings() {
+        BridgeConfig bridgeConfig = new BridgeConfigImpl();
+        BridgeRuntime runtime = BridgeRuntime.getInstance(bridgeConfig);
+        assertTrue(runtime.getFacesServletSuffixMappings().isEmpty());
+
+        bridgeConfig.setFacesServletMappings(Arrays.asList("/faces/*", "*.xhtml", "*.jsf"));
+        assertEquals(Arrays.asList(".xhtml", ".jsf"), runtime.getFacesServletSuffixMappings());
+        assertSame(runtime.getFacesServletSuffixMappings(), runtime.getFacesServletSuffixMappings());
+    }
+}
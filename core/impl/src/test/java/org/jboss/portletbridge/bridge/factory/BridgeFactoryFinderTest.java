@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.factory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the lookup of factories from {@link BridgeFactoryFinder}.
+ */
+public class BridgeFactoryFinderTest {
+
+    private static final int THREADS = 8;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(TestFactory.class, BaseTestFactory.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(TestFactory.class, WrappingTestFactory.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(TestFactory.class, BaseTestFactory.class.getName());
+    }
+
+    @Test
+    public void testDefinitionsKeepOrderWithoutDuplicates() {
+        assertEquals(Arrays.asList(BaseTestFactory.class.getName(), WrappingTestFactory.class.getName()),
+            BridgeFactoryFinder.getFactoryDefinition(TestFactory.class));
+    }
+
+    @Test
+    public void testInstanceWrapsPreviousDefinition() {
+        BridgeFactory<?> factory = BridgeFactoryFinder.getFactoryInstance(TestFactory.class);
+        assertTrue(factory instanceof WrappingTestFactory);
+        assertTrue(factory.getWrapped() instanceof BaseTestFactory);
+        assertSame(factory, BridgeFactoryFinder.getFactoryInstance(TestFactory.class));
+    }
+
+    @Test
+    public void testConcurrentCreationYieldsSingleInstance() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicReference<BridgeFactory<?>> first = new AtomicReference<BridgeFactory<?>>();
+        final AtomicLong mismatches = new AtomicLong();
+        BridgeFactoryFinder.addFactoryDefinition(OtherTestFactory.class, BaseOtherTestFactory.class.getName());
+
+        for (int t = 0; t < THREADS; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        BridgeFactory<?> factory = BridgeFactoryFinder.getFactoryInstance(OtherTestFactory.class);
+                        if (!first.compareAndSet(null, factory) && first.get() != factory) {
+                            mismatches.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+
+        assertNotNull(first.get());
+        assertEquals(0, mismatches.get());
+    }
+
+    public abstract static class TestFactory extends BridgeFactory<Object> {
+    }
+
+    public static class BaseTestFactory extends TestFactory {
+    }
+
+    public static class WrappingTestFactory extends TestFactory {
+        private final BridgeFactory<Object> wrapped;
+
+        public WrappingTestFactory(BridgeFactory<Object> wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public BridgeFactory<Object> getWrapped() {
+            return wrapped;
+        }
+    }
+
+    public abstract static class OtherTestFactory extends BridgeFactory<Object> {
+    }
+
+    public static class BaseOtherTestFactory extends OtherTestFactory {
+    }
+}
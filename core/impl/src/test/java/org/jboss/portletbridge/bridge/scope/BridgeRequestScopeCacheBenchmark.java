@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.util.LRUMap;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the throughput under contention of {@link BridgeRequestScopeCache} with the synchronized {@link LRUMap} it
+ * replaced.
+ * <p>
+ * Not run by surefire. Run with <code>mvn test -Dtest=BridgeRequestScopeCacheBenchmark</code>.
+ * </p>
+ */
+public class BridgeRequestScopeCacheBenchmark {
+
+    private static final int CAPACITY = 100;
+    private static final int THREADS = 8;
+    private static final long BENCHMARK_MILLIS = 1000;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void contention() throws Exception {
+        Map<String, BridgeRequestScope> synchronizedLru = Collections.synchronizedMap(
+            new LRUMap<String, BridgeRequestScope>(CAPACITY));
+        BridgeRequestScopeCache concurrent = new BridgeRequestScopeCache(CAPACITY);
+
+        // Warm up both before measuring
+        exercise(synchronizedLru);
+        exercise(concurrent);
+
+        long lruOps = exercise(synchronizedLru);
+        long clockOps = exercise(concurrent);
+
+        System.out.println("BridgeRequestScopeCache contention, " + THREADS + " threads, " + BENCHMARK_MILLIS
+            + "ms: synchronized LRUMap=" + lruOps + " ops, BridgeRequestScopeCache=" + clockOps + " ops");
+    }
+
+    /**
+     * Mimics a session with parallel render and Ajax requests: mostly lookups of existing scopes, with a scope created
+     * for roughly one request in ten.
+     */
+    private long exercise(final Map<String, BridgeRequestScope> cache) throws InterruptedException {
+        final String[] keys = new String[CAPACITY * 2];
+        final BridgeRequestScope[] scopes = new BridgeRequestScope[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "scope" + i;
+            scopes[i] = new BridgeRequestScopeImpl("portlet", "session", keys[i], "view");
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            cache.put(keys[i], scopes[i]);
+        }
+
+        final AtomicLong operations = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final long deadline = System.currentTimeMillis() + BENCHMARK_MILLIS;
+
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            final String prefix = "thread" + t + ":";
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long ops = 0;
+                        while ((ops & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                            int i = random.nextInt(keys.length);
+                            if (random.nextInt(10) == 0) {
+                                // New scope for an action, evicting the coldest one once the cache is full
+                                cache.put(prefix + ops, scopes[i]);
+                            } else {
+                                cache.get(keys[i]);
+                            }
+                            ops++;
+                        }
+                        operations.addAndGet(ops);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        done.await();
+        return operations.get();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the eviction behaviour of {@link BridgeRequestScopeCache}.
+ */
+public class BridgeRequestScopeCacheTest {
+
+    private static final int CAPACITY = 100;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void testEvictedScopeIsCleared() {
+        BridgeRequestScopeCache cache = new BridgeRequestScopeCache(2);
+        BridgeRequestScope first = newScope("first");
+        first.put("attr", "value");
+
+        cache.put(first.getId(), first);
+        cache.put("second", newScope("second"));
+        cache.put("third", newScope("third"));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(first.getId()));
+        assertTrue("Evicted scope should have been cleared", first.isEmpty());
+    }
+
+    @Test
+    public void testReferencedScopeIsGivenSecondChance() {
+        BridgeRequestScopeCache cache = new BridgeRequestScopeCache(2);
+        cache.put("first", newScope("first"));
+        cache.put("second", newScope("second"));
+
+        assertNotNull(cache.get("first"));
+        cache.put("third", newScope("third"));
+
+        assertNotNull(cache.get("first"));
+        assertNull(cache.get("second"));
+        assertNotNull(cache.get("third"));
+    }
+
+    @Test
+    public void testRemovalWithoutOverflow() {
+        BridgeRequestScopeCache cache = new BridgeRequestScopeCache(CAPACITY);
+        for (int i = 0; i < CAPACITY * 50; i++) {
+            String key = "scope" + i;
+            cache.put(key, newScope(key));
+            assertNotNull(cache.remove(key));
+        }
+        assertTrue(cache.isEmpty());
+
+        for (int i = 0; i < CAPACITY * 2; i++) {
+            String key = "scope" + i;
+            cache.put(key, newScope(key));
+        }
+        assertEquals(CAPACITY, cache.size());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        BridgeRequestScopeCache cache = new BridgeRequestScopeCache(2);
+        BridgeRequestScope scope = newScope("first");
+        scope.put("attr", "value");
+        cache.put("first", scope);
+        cache.put("second", newScope("second"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache);
+        out.close();
+        BridgeRequestScopeCache copy = (BridgeRequestScopeCache) new ObjectInputStream(new ByteArrayInputStream(
+            bytes.toByteArray())).readObject();
+
+        assertEquals(2, copy.size());
+        assertEquals("value", copy.get("first").get("attr"));
+
+        copy.put("third", newScope("third"));
+        assertEquals(2, copy.size());
+        assertNull(copy.get("second"));
+    }
+
+    @Test
+    public void testSizeStaysWithinCapacity() {
+        BridgeRequestScopeCache cache = new BridgeRequestScopeCache(CAPACITY);
+        for (int i = 0; i < CAPACITY * 3; i++) {
+            cache.put("scope" + i, newScope("scope" + i));
+            // Keep referencing some of the older scopes, so that they are given a second chance
+            cache.get("scope" + i / 2);
+            assertTrue(cache.size() <= CAPACITY);
+        }
+        assertNotNull(cache.get("scope" + (CAPACITY * 3 - 1)));
+    }
+
+    private static BridgeRequestScope newScope(String viewId) {
+        return new BridgeRequestScopeImpl("portlet", "session", viewId, "view");
+    }
+}
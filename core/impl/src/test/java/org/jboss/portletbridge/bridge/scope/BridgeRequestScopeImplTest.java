@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.portlet.faces.annotation.BridgePreDestroy;
+
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRequestScopeImpl} only calls {@link BridgePreDestroy} methods of values that leave the
+ * scope.
+ */
+public class BridgeRequestScopeImplTest {
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void putIfAbsentNeverDestroys() {
+        BridgeRequestScopeImpl scope = newScope();
+        Bean present = new Bean();
+        scope.put("bean", present);
+
+        Bean other = new Bean();
+        assertSame(present, scope.putIfAbsent("bean", other));
+        assertEquals(0, present.destroyed);
+        assertEquals(0, other.destroyed);
+        assertSame(present, scope.get("bean"));
+    }
+
+    @Test
+    public void putDestroysOnlyDisplacedValue() {
+        BridgeRequestScopeImpl scope = newScope();
+        Bean bean = new Bean();
+        scope.put("bean", bean);
+        scope.put("bean", bean);
+        assertEquals(0, bean.destroyed);
+
+        Bean replacement = new Bean();
+        scope.put("bean", replacement);
+        assertEquals(1, bean.destroyed);
+        assertEquals(0, replacement.destroyed);
+    }
+
+    @Test
+    public void replaceDestroysOnlyDisplacedValue() {
+        BridgeRequestScopeImpl scope = newScope();
+        Bean bean = new Bean();
+        scope.put("bean", bean);
+
+        scope.replace("bean", bean);
+        assertTrue(scope.replace("bean", bean, bean));
+        assertEquals(0, bean.destroyed);
+
+        Bean replacement = new Bean();
+        assertFalse(scope.replace("bean", replacement, new Bean()));
+        assertEquals(0, bean.destroyed);
+        assertEquals(0, replacement.destroyed);
+
+        assertTrue(scope.replace("bean", bean, replacement));
+        assertEquals(1, bean.destroyed);
+
+        scope.replace("bean", new Bean());
+        assertEquals(1, replacement.destroyed);
+    }
+
+    @Test
+    public void conditionalRemoveDestroysOnlyWhenRemoved() {
+        BridgeRequestScopeImpl scope = newScope();
+        Bean bean = new Bean();
+        scope.put("bean", bean);
+
+        Bean other = new Bean();
+        assertFalse(scope.remove("bean", other));
+        assertEquals(0, other.destroyed);
+        assertEquals(0, bean.destroyed);
+
+        assertTrue(scope.remove("bean", bean));
+        assertEquals(1, bean.destroyed);
+    }
+
+    @Test
+    public void removeDestroysWhateverTheKeyType() {
+        BridgeRequestScopeImpl scope = newScope();
+        Bean first = new Bean();
+        Bean second = new Bean();
+        scope.put("first", first);
+        scope.put("second", second);
+
+        assertSame(first, scope.remove("first"));
+        assertSame(second, scope.remove((Object) "second"));
+        assertEquals(1, first.destroyed);
+        assertEquals(1, second.destroyed);
+    }
+
+    @Test
+    public void expiredScopeIsNeverTouchedAgain() {
+        BridgeRequestScopeImpl scope = newScope();
+        long now = scope.getLastAccessedTime() + 2000L;
+        assertTrue(scope.expire(now, 1000L, 0L));
+
+        // Even if the time of the request would not have expired it
+        assertFalse(scope.touchUnlessExpired(now - 1500L, 1000L, 0L));
+        assertFalse(scope.touchUnlessExpired(now, 0L, 0L));
+        assertTrue(scope.expire(now, 0L, 0L));
+    }
+
+    @Test
+    public void touchedScopeIsNotExpired() {
+        BridgeRequestScopeImpl scope = newScope();
+        long created = scope.getLastAccessedTime();
+        assertTrue(scope.touchUnlessExpired(created + 900L, 1000L, 0L));
+
+        // Would have expired by this time, had the scope not been touched
+        assertFalse(scope.expire(created + 1500L, 1000L, 0L));
+        assertTrue(scope.touchUnlessExpired(created + 1600L, 1000L, 0L));
+    }
+
+    private static BridgeRequestScopeImpl newScope() {
+        return new BridgeRequestScopeImpl("portlet", "session", "/view.xhtml", "view");
+    }
+
+    public static class Bean {
+        int destroyed;
+
+        @BridgePreDestroy
+        public void destroy() {
+            destroyed++;
+        }
+    }
+}
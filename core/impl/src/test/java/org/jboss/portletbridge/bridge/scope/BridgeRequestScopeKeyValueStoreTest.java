@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.portlet.PortletContext;
+import javax.portlet.faces.annotation.BridgePreDestroy;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies {@link BridgeRequestScopeKeyValueStore} against an in-process {@link KeyValueCache}, standing in for a cache
+ * shared by the nodes of a cluster. Failover is simulated by deserializing the store, which only carries the ids of its
+ * scopes, and reading them back from the cache.
+ */
+public class BridgeRequestScopeKeyValueStoreTest {
+
+    private InMemoryKeyValueCache cache;
+    private PortletContext portletContext;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Before
+    public void setUp() {
+        cache = new InMemoryKeyValueCache();
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(KeyValueCache.CACHE_ATTRIBUTE, cache);
+        portletContext = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getAttribute".equals(method.getName())) {
+                        return attributes.get(args[0]);
+                    }
+                    if ("setAttribute".equals(method.getName())) {
+                        attributes.put((String) args[0], args[1]);
+                    }
+                    // No init parameters
+                    return null;
+                }
+            });
+    }
+
+    @Test
+    public void testScopeSurvivesFailover() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        scope.put("attr", "value");
+        store.put(scope);
+        assertSame(scope, store.get(scope.getId()));
+
+        BridgeRequestScopeKeyValueStore failover = failover(store);
+        BridgeRequestScope restored = failover.get(scope.getId());
+        assertNotNull(restored);
+        assertEquals("value", restored.get("attr"));
+        assertSame("Should be held in memory once read", restored, failover.get(scope.getId()));
+    }
+
+    @Test
+    public void testUpdateIsWrittenBack() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        store.put(scope);
+        scope.put("attr", "value");
+
+        assertNull(failover(store).get(scope.getId()).get("attr"));
+
+        store.put(scope);
+        assertEquals("value", failover(store).get(scope.getId()).get("attr"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        store.put(scope);
+
+        assertSame(scope, store.remove(scope.getId()));
+        assertNull(store.get(scope.getId()));
+        assertTrue(cache.values.isEmpty());
+        assertFalse(store.remove(scope));
+    }
+
+    @Test
+    public void testRemoveDropsScopeWithoutPreDestroyUnread() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        scope.put("attr", "value");
+        store.put(scope);
+
+        BridgeRequestScope removed = failover(store).remove(scope.getId());
+        assertEquals(scope.getId(), removed.getId());
+        assertEquals(BridgeRequestScopeKey.forScope(scope), BridgeRequestScopeKey.forScope(removed));
+        assertTrue(removed.isEmpty());
+        assertTrue(cache.values.isEmpty());
+    }
+
+    @Test
+    public void testRemoveReadsScopeWithPreDestroy() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        scope.put("bean", new DestroyableBean());
+        store.put(scope);
+
+        BridgeRequestScope removed = failover(store).remove(scope.getId());
+        assertNotNull(removed);
+        assertTrue(removed.get("bean") instanceof DestroyableBean);
+        assertTrue(cache.values.isEmpty());
+    }
+
+    @Test
+    public void testRemoveBySession() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        store.put(newScope("first"));
+        store.put(newScope("first"));
+        BridgeRequestScope other = newScope("second");
+        store.put(other);
+
+        List<BridgeRequestScope> removed = failover(store).removeBySession("first");
+        assertEquals(2, removed.size());
+        assertEquals("first", removed.get(0).getSessionId());
+        assertEquals(1, cache.values.size());
+        assertNotNull(failover(store).get(other.getId()));
+    }
+
+    @Test
+    public void testRemoveByPortlet() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        store.put(scope);
+        BridgeRequestScope other = new BridgeRequestScopeImpl("other", "session", "/view.xhtml", "view");
+        store.put(other);
+
+        List<BridgeRequestScope> removed = store.removeByPortlet("portlet");
+        assertEquals(1, removed.size());
+        assertSame(scope, removed.get(0));
+        assertTrue(store.removeByPortlet("portlet").isEmpty());
+        assertEquals(1, store.removeBySession("session").size());
+        assertTrue(cache.values.isEmpty());
+    }
+
+    @Test
+    public void testExpiredScopeIsReadToBeCleared() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        scope.put("bean", new DestroyableBean());
+        store.put(scope);
+        BridgeRequestScope unread = newScope("session");
+        unread.put("attr", "value");
+        store.put(unread);
+
+        BridgeRequestScopeKeyValueStore failover = failover(store);
+        assertTrue(failover.removeExpired(System.currentTimeMillis(), 60000L, 0L).isEmpty());
+
+        List<BridgeRequestScope> expired = failover.removeExpired(System.currentTimeMillis() + 120000L, 60000L, 0L);
+        assertEquals(2, expired.size());
+        for (BridgeRequestScope expiredScope : expired) {
+            if (scope.getId().equals(expiredScope.getId())) {
+                assertTrue(expiredScope.get("bean") instanceof DestroyableBean);
+            } else {
+                assertTrue("Should not be read without values to clear", expiredScope.isEmpty());
+            }
+        }
+        assertTrue(cache.values.isEmpty());
+    }
+
+    @Test
+    public void testScopeExpiredByCacheIsForgotten() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        store.put(scope);
+
+        BridgeRequestScopeKeyValueStore failover = failover(store);
+        cache.values.clear();
+        assertNull(failover.get(scope.getId()));
+        assertTrue(failover.removeBySession("session").isEmpty());
+    }
+
+    @Test
+    public void testUnserializableScopeIsKeptLocally() throws Exception {
+        BridgeRequestScopeKeyValueStore store = newStore();
+        BridgeRequestScope scope = newScope("session");
+        scope.put("attr", new Object());
+        store.put(scope);
+
+        assertSame(scope, store.get(scope.getId()));
+        assertNull(failover(store).get(scope.getId()));
+    }
+
+    @Test
+    public void testInvalidCacheClassIsReported() {
+        assertInvalidCacheClass("org.example.MissingCache", "was not found");
+        assertInvalidCacheClass(String.class.getName(), "does not implement");
+        assertInvalidCacheClass(NoDefaultConstructorCache.class.getName(), "has no no-arg constructor");
+    }
+
+    private static void assertInvalidCacheClass(final String className, String reason) {
+        PortletContext context = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getInitParameter".equals(method.getName())
+                        && PortletBridgeConstants.REQUEST_SCOPE_KEY_VALUE_CACHE.equals(args[0])) {
+                        return className;
+                    }
+                    return null;
+                }
+            });
+        try {
+            BridgeRequestScopeKeyValueStore.getKeyValueCache(context);
+            fail(className + " should be rejected");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(className + " " + reason));
+        }
+    }
+
+    private BridgeRequestScopeKeyValueStore newStore() {
+        BridgeRequestScopeKeyValueStore store = new BridgeRequestScopeKeyValueStore();
+        store.attach(portletContext, null);
+        return store;
+    }
+
+    private BridgeRequestScopeKeyValueStore failover(BridgeRequestScopeKeyValueStore store) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.close();
+        BridgeRequestScopeKeyValueStore copy = (BridgeRequestScopeKeyValueStore) new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        copy.attach(portletContext, null);
+        return copy;
+    }
+
+    private static BridgeRequestScope newScope(String sessionId) {
+        return new BridgeRequestScopeImpl("portlet", sessionId, "/view.xhtml", "view");
+    }
+
+    public static class DestroyableBean implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @BridgePreDestroy
+        public void destroy() {
+        }
+    }
+
+    public static class NoDefaultConstructorCache extends InMemoryKeyValueCache {
+
+        public NoDefaultConstructorCache(String name) {
+        }
+    }
+
+    private static class InMemoryKeyValueCache implements KeyValueCache {
+
+        final Map<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+
+        public byte[] get(String key) {
+            return values.get(key);
+        }
+
+        public void put(String key, byte[] value) {
+            values.put(key, value);
+        }
+
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+import javax.portlet.faces.Bridge;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.config.BridgeConfigImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactoryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the counters of {@link BridgeRequestScopeMetrics}, and their registration as a platform MBean.
+ */
+public class BridgeRequestScopeMetricsTest {
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private final Map<String, String> initParameters = new HashMap<String, String>();
+    private PortletContext portletContext;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeRequestScopeFactory.class,
+            BridgeRequestScopeFactoryImpl.class.getName());
+    }
+
+    @Before
+    public void setUp() {
+        initParameters.put(PortletBridgeConstants.REQUEST_SCOPE_METRICS, "true");
+        initParameters.put(Bridge.MAX_MANAGED_REQUEST_SCOPES, "2");
+        portletContext = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    } else if ("setAttribute".equals(name)) {
+                        attributes.put((String) args[0], args[1]);
+                    } else if ("getInitParameter".equals(name)) {
+                        return initParameters.get(args[0]);
+                    } else if ("getPortletContextName".equals(name)) {
+                        return "metrics-test";
+                    }
+                    return null;
+                }
+            });
+    }
+
+    @After
+    public void tearDown() {
+        Object metrics = attributes.get(BridgeRequestScopeMetrics.METRICS_ATTRIBUTE);
+        if (metrics instanceof BridgeRequestScopeMetrics) {
+            ((BridgeRequestScopeMetrics) metrics).shutdown();
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        initParameters.remove(PortletBridgeConstants.REQUEST_SCOPE_METRICS);
+        assertNull(BridgeRequestScopeMetrics.getInstance(portletContext));
+    }
+
+    @Test
+    public void testCounters() {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        BridgeRequestScopeMetrics metrics = BridgeRequestScopeMetrics.getInstance(portletContext);
+        assertNotNull(metrics);
+
+        BridgeRequestScope first = manager.createRequestScope(null, "portlet", "session", "/first.xhtml", "view");
+        first.put("attr", "value");
+        first.put("other", "value");
+        manager.createRequestScope(null, "portlet", "session", "/second.xhtml", "view");
+        assertEquals(2, metrics.getCreatedScopeCount());
+        assertEquals(2, metrics.getActiveScopeCount());
+
+        assertSame(first, manager.getRequestScopeById(null, first.getId()));
+        assertNull(manager.getRequestScopeById(null, "unknown"));
+        assertEquals(1, metrics.getHitCount());
+        assertEquals(1, metrics.getMissCount());
+        assertEquals(0.5d, metrics.getHitRatio(), 0d);
+
+        // Exceeds MAX_MANAGED_REQUEST_SCOPES, evicting the second scope as the first has been referenced
+        manager.createRequestScope(null, "portlet", "session", "/third.xhtml", "view");
+        assertEquals(1, metrics.getEvictedScopeCount());
+
+        manager.removeRequestScopeById(null, first.getId());
+        assertEquals(1, metrics.getRemovedScopeCount());
+        assertTrue(first.isEmpty());
+
+        assertEquals(1, metrics.getActiveScopeCount());
+        assertEquals(2, metrics.getClearedScopeCount());
+        assertEquals(1d, metrics.getAverageEntriesPerScope(), 0d);
+
+        metrics.reset();
+        assertEquals(0, metrics.getCreatedScopeCount());
+        assertEquals(0, metrics.getClearedScopeCount());
+    }
+
+    @Test
+    public void testRegisteredAsMBean() throws Exception {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        BridgeRequestScopeMetrics metrics = BridgeRequestScopeMetrics.getInstance(portletContext);
+        ObjectName name = metrics.getObjectName();
+        assertEquals(new ObjectName(BridgeRequestScopeMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("metrics-test")),
+            name);
+
+        manager.createRequestScope(null, "portlet", "session", "/view.xhtml", "view");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(1L, server.getAttribute(name, "CreatedScopeCount"));
+
+        metrics.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testRegisteredUniquelyWithoutName() throws Exception {
+        BridgeRequestScopeMetrics first = BridgeRequestScopeMetrics.getInstance(newPortletContext(null));
+        BridgeRequestScopeMetrics second = BridgeRequestScopeMetrics.getInstance(newPortletContext(""));
+        try {
+            assertNotNull(first.getObjectName());
+            assertNotNull(second.getObjectName());
+            assertFalse(first.getObjectName().equals(second.getObjectName()));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void testRegisteredUniquelyWithSharedName() throws Exception {
+        BridgeRequestScopeMetrics first = BridgeRequestScopeMetrics.getInstance(newPortletContext("shared"));
+        BridgeRequestScopeMetrics second = BridgeRequestScopeMetrics.getInstance(newPortletContext("shared"));
+        try {
+            assertEquals(new ObjectName(BridgeRequestScopeMetrics.OBJECT_NAME_PREFIX + ObjectName.quote("shared")),
+                first.getObjectName());
+            assertNotNull(second.getObjectName());
+            assertFalse(first.getObjectName().equals(second.getObjectName()));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    /**
+     * Another application, with metrics enabled, named as given.
+     */
+    private PortletContext newPortletContext(final String contextName) {
+        final Map<String, Object> contextAttributes = new HashMap<String, Object>();
+        return (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getAttribute".equals(name)) {
+                        return contextAttributes.get(args[0]);
+                    } else if ("setAttribute".equals(name)) {
+                        contextAttributes.put((String) args[0], args[1]);
+                    } else if ("getInitParameter".equals(name)) {
+                        return initParameters.get(args[0]);
+                    } else if ("getPortletContextName".equals(name)) {
+                        return contextName;
+                    } else if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private BridgeRequestScopeManagerImpl newManager() {
+        PortletConfig portletConfig = (PortletConfig) Proxy.newProxyInstance(PortletConfig.class.getClassLoader(),
+            new Class<?>[] { PortletConfig.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getPortletContext".equals(method.getName())) {
+                        return portletContext;
+                    }
+                    return null;
+                }
+            });
+        BridgeConfigImpl bridgeConfig = new BridgeConfigImpl();
+        bridgeConfig.setPortletConfig(portletConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRequestScopeOverlay} reads through to the restored scope, except for names removed from
+ * the request.
+ */
+public class BridgeRequestScopeOverlayTest {
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void readsThroughToScope() {
+        BridgeRequestScope scope = newScope();
+        BridgeRequestScopeOverlay overlay = new BridgeRequestScopeOverlay(scope);
+
+        assertEquals("first", overlay.getAttribute("first"));
+        assertNull(overlay.getAttribute("missing"));
+
+        // Entries added to the scope later are visible too
+        scope.put("third", "third");
+        assertEquals("third", overlay.getAttribute("third"));
+    }
+
+    @Test
+    public void removedNameIsNotReinstated() {
+        BridgeRequestScope scope = newScope();
+        BridgeRequestScopeOverlay overlay = new BridgeRequestScopeOverlay(scope);
+
+        overlay.attributeRemoved("first");
+
+        assertNull(overlay.getAttribute("first"));
+        assertEquals("second", overlay.getAttribute("second"));
+        assertEquals("first", scope.get("first"));
+        assertEquals(set("request", "second"), set(overlay.getAttributeNames(names("request"))));
+    }
+
+    @Test
+    public void attributeNamesCombineRequestAndScope() {
+        BridgeRequestScopeOverlay overlay = new BridgeRequestScopeOverlay(newScope());
+
+        List<String> names = Collections.list(overlay.getAttributeNames(names("request", "first")));
+        assertEquals(3, names.size());
+        assertEquals(set("request", "first", "second"), new HashSet<String>(names));
+    }
+
+    @Test
+    public void attributeNamesAreCopied() {
+        BridgeRequestScope scope = newScope();
+        BridgeRequestScopeOverlay overlay = new BridgeRequestScopeOverlay(scope);
+
+        Enumeration<String> names = overlay.getAttributeNames(names());
+        scope.put("third", "third");
+        scope.remove("first");
+
+        assertEquals(set("first", "second"), set(names));
+    }
+
+    private static BridgeRequestScope newScope() {
+        BridgeRequestScope scope = new BridgeRequestScopeImpl("portlet", "session", "/view.xhtml", "view");
+        scope.put("first", "first");
+        scope.put("second", "second");
+        return scope;
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    private static Set<String> set(Enumeration<String> names) {
+        return new HashSet<String>(Collections.list(names));
+    }
+
+    private static Enumeration<String> names(String... names) {
+        return Collections.enumeration(Arrays.asList(names));
+    }
+}
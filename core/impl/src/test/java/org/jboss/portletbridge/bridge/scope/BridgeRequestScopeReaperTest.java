@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.config.BridgeConfigImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactoryImpl;
+import org.jboss.portletbridge.bridge.scope.BridgeRequestScopeImplTest.Bean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRequestScopeReaper} removes and clears the expired scopes of the managers registered with
+ * it, and leaves the others.
+ */
+public class BridgeRequestScopeReaperTest {
+
+    private static final long IDLE_TIMEOUT = 60000L;
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private final Map<String, String> initParameters = new HashMap<String, String>();
+    private PortletContext portletContext;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeRequestScopeFactory.class,
+            BridgeRequestScopeFactoryImpl.class.getName());
+    }
+
+    @Before
+    public void setUp() {
+        initParameters.put(PortletBridgeConstants.REQUEST_SCOPE_IDLE_TIMEOUT, String.valueOf(IDLE_TIMEOUT / 1000));
+        portletContext = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    } else if ("setAttribute".equals(name)) {
+                        attributes.put((String) args[0], args[1]);
+                    } else if ("getInitParameter".equals(name)) {
+                        return initParameters.get(args[0]);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    @After
+    public void tearDown() {
+        Object reaper = attributes.get(BridgeRequestScopeReaper.REAPER_ATTRIBUTE);
+        if (reaper instanceof BridgeRequestScopeReaper) {
+            ((BridgeRequestScopeReaper) reaper).shutdown();
+        }
+    }
+
+    @Test
+    public void testNotStartedWithoutExpiry() {
+        initParameters.clear();
+        newManager();
+        assertNull(attributes.get(BridgeRequestScopeReaper.REAPER_ATTRIBUTE));
+    }
+
+    @Test
+    public void testSharedByApplication() {
+        newManager();
+        newManager();
+        BridgeRequestScopeReaper reaper = (BridgeRequestScopeReaper) attributes
+            .get(BridgeRequestScopeReaper.REAPER_ATTRIBUTE);
+        assertNotNull(reaper);
+        assertSame(reaper, BridgeRequestScopeReaper.getInstance(portletContext, IDLE_TIMEOUT));
+    }
+
+    @Test
+    public void testReapsOnlyExpiredScopes() {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        BridgeRequestScopeReaper reaper = (BridgeRequestScopeReaper) attributes
+            .get(BridgeRequestScopeReaper.REAPER_ATTRIBUTE);
+
+        BridgeRequestScope idle = manager.createRequestScope(null, "portlet", "session", "/idle.xhtml", "view");
+        Bean idleBean = new Bean();
+        idle.put("bean", idleBean);
+        ((BridgeRequestScopeImpl) idle).touch(System.currentTimeMillis() - IDLE_TIMEOUT * 2);
+
+        BridgeRequestScope active = manager.createRequestScope(null, "portlet", "session", "/active.xhtml", "view");
+        Bean activeBean = new Bean();
+        active.put("bean", activeBean);
+
+        reaper.reap();
+
+        assertNull(manager.getRequestScope(null, "portlet", "session", "/idle.xhtml", "view"));
+        assertEquals(1, idleBean.destroyed);
+        assertTrue(idle.isEmpty());
+        assertSame(active, manager.getRequestScope(null, "portlet", "session", "/active.xhtml", "view"));
+        assertEquals(0, activeBean.destroyed);
+        assertEquals(1, reaper.getReapedScopeCount());
+        assertTrue(reaper.getReleasedBytes() > 0);
+    }
+
+    private BridgeRequestScopeManagerImpl newManager() {
+        PortletConfig portletConfig = (PortletConfig) Proxy.newProxyInstance(PortletConfig.class.getClassLoader(),
+            new Class<?>[] { PortletConfig.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getPortletContext".equals(method.getName())) {
+                        return portletContext;
+                    }
+                    return null;
+                }
+            });
+        BridgeConfigImpl bridgeConfig = new BridgeConfigImpl();
+        bridgeConfig.setPortletConfig(portletConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.config.BridgeConfigImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactoryImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRequestScopeRegistry} does not keep the scopes of sessions that are gone, and only
+ * measures a scope again once it has changed.
+ */
+public class BridgeRequestScopeRegistryTest {
+
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+    private final Map<String, String> initParameters = new HashMap<String, String>();
+    private PortletContext portletContext;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeRequestScopeFactory.class,
+            BridgeRequestScopeFactoryImpl.class.getName());
+    }
+
+    @Before
+    public void setUp() {
+        initParameters.put(PortletBridgeConstants.REQUEST_SCOPE_GLOBAL_MAX_BYTES, String.valueOf(Long.MAX_VALUE));
+        portletContext = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    } else if ("setAttribute".equals(name)) {
+                        attributes.put((String) args[0], args[1]);
+                    } else if ("getInitParameter".equals(name)) {
+                        return initParameters.get(args[0]);
+                    }
+                    return null;
+                }
+            });
+    }
+
+    @After
+    public void tearDown() {
+        BridgeRequestScopeRegistry registry = getRegistry();
+        if (null != registry) {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    public void testReleasesScopesOfUnreachableSession() throws Exception {
+        WeakReference<BridgeRequestScope> scope = new WeakReference<BridgeRequestScope>(createScope(newManager()));
+        BridgeRequestScopeRegistry registry = getRegistry();
+        assertNotNull(registry);
+        assertEquals(1, registry.getScopeCount());
+
+        // Session passivated, or invalidated, without its scopes being removed
+        for (int i = 0; i < 10 && null != scope.get(); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(scope.get());
+        registry.refresh();
+        assertEquals(0, registry.getScopeCount());
+    }
+
+    @Test
+    public void testMeasuresScopeOnlyOnceChanged() {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        BridgeRequestScopeImpl scope = (BridgeRequestScopeImpl) createScope(manager);
+        CountingValue value = new CountingValue();
+        scope.put("value", value);
+        // Idle for longer than the estimate interval
+        scope.touch(System.currentTimeMillis() - 60000L);
+
+        BridgeRequestScopeRegistry registry = getRegistry();
+        registry.refresh();
+        long bytes = registry.getEstimatedBytes();
+        assertTrue(bytes > 0);
+        assertEquals(1, value.written);
+
+        registry.refresh();
+        assertEquals(bytes, registry.getEstimatedBytes());
+        assertEquals(1, value.written);
+
+        scope.put("other", "value");
+        registry.refresh();
+        assertTrue(registry.getEstimatedBytes() > bytes);
+        assertEquals(2, value.written);
+    }
+
+    private BridgeRequestScopeRegistry getRegistry() {
+        return (BridgeRequestScopeRegistry) attributes.get(BridgeRequestScopeRegistry.REGISTRY_ATTRIBUTE);
+    }
+
+    private static BridgeRequestScope createScope(BridgeRequestScopeManagerImpl manager) {
+        return manager.createRequestScope(null, "portlet", "session", "/view.xhtml", "view");
+    }
+
+    private BridgeRequestScopeManagerImpl newManager() {
+        PortletConfig portletConfig = (PortletConfig) Proxy.newProxyInstance(PortletConfig.class.getClassLoader(),
+            new Class<?>[] { PortletConfig.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getPortletContext".equals(method.getName())) {
+                        return portletContext;
+                    }
+                    return null;
+                }
+            });
+        BridgeConfigImpl bridgeConfig = new BridgeConfigImpl();
+        bridgeConfig.setPortletConfig(portletConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig);
+    }
+
+    private static class CountingValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        transient int written;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            written++;
+            out.defaultWriteObject();
+        }
+    }
+}
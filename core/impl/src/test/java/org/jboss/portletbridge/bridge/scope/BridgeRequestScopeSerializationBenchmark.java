@@ -0,0 +1,187 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.bridge.config.BridgeConfigImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the bytes written to replicate a session after each request, for a session holding
+ * {@link BridgeRequestScopeSerializationTest#SCOPES} scopes of which one is used per request. It compares the default
+ * serialization of the same state with the compact form of the manager, held in the default store and in a
+ * {@link BridgeRequestScopeKeyValueStore}, where the bytes written back to the cache are counted as well.
+ * <p>
+ * Not run by surefire. Run with <code>mvn test -Dtest=BridgeRequestScopeSerializationBenchmark</code>.
+ * </p>
+ */
+public class BridgeRequestScopeSerializationBenchmark {
+
+    private static final int REQUESTS = 200;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeRequestScopeFactory.class,
+            BridgeRequestScopeFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void bytesPerReplicatedRequest() throws Exception {
+        BridgeRequestScopeManagerImpl manager = BridgeRequestScopeSerializationTest.newManager();
+        CountingKeyValueCache cache = new CountingKeyValueCache();
+        BridgeRequestScopeManagerImpl keyValueManager = newKeyValueManager(cache);
+        Map<String, BridgeRequestScopeSerializationTest.LegacyScope> legacyScopes =
+            new LinkedHashMap<String, BridgeRequestScopeSerializationTest.LegacyScope>();
+        Map<BridgeRequestScopeKey, String> legacyIds = new ConcurrentHashMap<BridgeRequestScopeKey, String>();
+        List<String> ids = new ArrayList<String>();
+        List<String> keyValueIds = new ArrayList<String>();
+        for (int i = 0; i < BridgeRequestScopeSerializationTest.SCOPES; i++) {
+            BridgeRequestScope scope = createScope(manager, i);
+            ids.add(scope.getId());
+            legacyScopes.put(scope.getId(), new BridgeRequestScopeSerializationTest.LegacyScope(scope,
+                BridgeRequestScopeSerializationTest.EXCLUDED));
+            legacyIds.put(BridgeRequestScopeKey.forScope(scope), scope.getId());
+
+            BridgeRequestScope keyValueScope = createScope(keyValueManager, i);
+            keyValueManager.updateRequestScope(null, keyValueScope);
+            keyValueIds.add(keyValueScope.getId());
+        }
+        Object legacyManager = new Object[] { legacyScopes, legacyIds };
+
+        // Warm up all before measuring
+        BridgeRequestScopeSerializationTest.serializedSize(legacyManager);
+        BridgeRequestScopeSerializationTest.serializedSize(manager);
+        BridgeRequestScopeSerializationTest.serializedSize(keyValueManager);
+        cache.written.set(0);
+
+        long legacyBytes = 0;
+        long compactBytes = 0;
+        long keyValueBytes = 0;
+        long legacyNanos = 0;
+        long compactNanos = 0;
+        long keyValueNanos = 0;
+        for (int request = 0; request < REQUESTS; request++) {
+            int used = request % BridgeRequestScopeSerializationTest.SCOPES;
+            manager.getRequestScopeById(null, ids.get(used)).put("counter", request);
+            legacyScopes.get(ids.get(used)).put("counter", request);
+
+            long start = System.nanoTime();
+            legacyBytes += BridgeRequestScopeSerializationTest.serializedSize(legacyManager);
+            legacyNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            compactBytes += BridgeRequestScopeSerializationTest.serializedSize(manager);
+            compactNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            BridgeRequestScope keyValueScope = keyValueManager.getRequestScopeById(null, keyValueIds.get(used));
+            keyValueScope.put("counter", request);
+            keyValueManager.updateRequestScope(null, keyValueScope);
+            keyValueBytes += BridgeRequestScopeSerializationTest.serializedSize(keyValueManager);
+            keyValueNanos += System.nanoTime() - start;
+        }
+        keyValueBytes += cache.written.get();
+
+        System.out.println("BridgeRequestScopeManager replication, " + BridgeRequestScopeSerializationTest.SCOPES
+            + " scopes, one used per request: default serialization=" + legacyBytes / REQUESTS + " bytes, "
+            + legacyNanos / REQUESTS / 1000 + "us; compact=" + compactBytes / REQUESTS + " bytes, " + compactNanos
+            / REQUESTS / 1000 + "us; key/value store=" + keyValueBytes / REQUESTS + " bytes (session and cache), "
+            + keyValueNanos / REQUESTS / 1000 + "us");
+    }
+
+    private static BridgeRequestScope createScope(BridgeRequestScopeManagerImpl manager, int i) {
+        BridgeRequestScope scope = manager.createRequestScope(null, "portlet", "session", "/view" + i + ".xhtml",
+            "view");
+        scope.setExcludedEntries(BridgeRequestScopeSerializationTest.EXCLUDED);
+        BridgeRequestScopeSerializationTest.fill(scope, i);
+        return scope;
+    }
+
+    private static BridgeRequestScopeManagerImpl newKeyValueManager(KeyValueCache cache) {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(KeyValueCache.CACHE_ATTRIBUTE, cache);
+        final PortletContext portletContext = (PortletContext) Proxy.newProxyInstance(
+            PortletContext.class.getClassLoader(), new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getAttribute".equals(method.getName())) {
+                        return attributes.get(args[0]);
+                    }
+                    // No init parameters
+                    return null;
+                }
+            });
+        PortletConfig portletConfig = (PortletConfig) Proxy.newProxyInstance(PortletConfig.class.getClassLoader(),
+            new Class<?>[] { PortletConfig.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getPortletContext".equals(method.getName())) {
+                        return portletContext;
+                    }
+                    return null;
+                }
+            });
+        BridgeConfigImpl bridgeConfig = new BridgeConfigImpl();
+        bridgeConfig.setPortletConfig(portletConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig, new BridgeRequestScopeKeyValueStore());
+    }
+
+    /**
+     * In-process {@link KeyValueCache} counting the bytes written to it.
+     */
+    private static class CountingKeyValueCache implements KeyValueCache {
+
+        final Map<String, byte[]> values = new ConcurrentHashMap<String, byte[]>();
+        final AtomicLong written = new AtomicLong();
+
+        public byte[] get(String key) {
+            return values.get(key);
+        }
+
+        public void put(String key, byte[] value) {
+            written.addAndGet(value.length);
+            values.put(key, value);
+        }
+
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.portlet.PortletConfig;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.bridge.config.BridgeConfigImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeRequestScopeFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies the compact serialized form of {@link BridgeRequestScopeImpl} and {@link BridgeRequestScopeManagerImpl}, and
+ * that it is smaller than the default serialization of the same state.
+ */
+public class BridgeRequestScopeSerializationTest {
+
+    static final int SCOPES = 50;
+    static final List<String> EXCLUDED = Arrays.asList("javax.faces.*", "com.sun.faces.*",
+        "org.richfaces.*", "javax.portlet.faces.*");
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+        BridgeFactoryFinder.addFactoryDefinition(BridgeRequestScopeFactory.class,
+            BridgeRequestScopeFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void testScopeRoundTrip() throws Exception {
+        BridgeRequestScopeImpl scope = newScope("session", 0);
+        scope.setExcludedEntries(EXCLUDED);
+
+        BridgeRequestScopeImpl copy = (BridgeRequestScopeImpl) copy(scope);
+        assertEquals(scope.getId(), copy.getId());
+        assertEquals(scope.getPortletName(), copy.getPortletName());
+        assertEquals(scope.getSessionId(), copy.getSessionId());
+        assertEquals(scope.getViewId(), copy.getViewId());
+        assertEquals(scope.getPortletMode(), copy.getPortletMode());
+        assertEquals(scope.getCreationTime(), copy.getCreationTime());
+        assertEquals(scope.getLastAccessedTime(), copy.getLastAccessedTime());
+        assertEquals(scope.size(), copy.size());
+        assertEquals(scope.get("bean"), copy.get("bean"));
+
+        copy.put("javax.faces.excluded", "value");
+        assertNull("Excludes should survive serialization", copy.get("javax.faces.excluded"));
+    }
+
+    @Test
+    public void testDirtyTracking() throws Exception {
+        BridgeRequestScopeImpl scope = newScope("session", 0);
+        assertTrue(scope.isDirty());
+
+        copy(scope);
+        assertFalse(scope.isDirty());
+        scope.put("attr", "value");
+        assertTrue(scope.isDirty());
+
+        copy(scope);
+        scope.remove("attr");
+        assertTrue(scope.isDirty());
+
+        copy(scope);
+        scope.touch(System.currentTimeMillis());
+        assertTrue("Values may be changed by the request that retrieved the scope", scope.isDirty());
+
+        BridgeRequestScopeImpl copy = (BridgeRequestScopeImpl) copy(scope);
+        assertFalse(copy.isDirty());
+    }
+
+    @Test
+    public void testManagerRoundTrip() throws Exception {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        BridgeRequestScope scope = manager.createRequestScope(null, "portlet", "session", "/view.xhtml", "view");
+        scope.put("attr", "value");
+
+        BridgeRequestScopeManagerImpl copy = (BridgeRequestScopeManagerImpl) copy(manager);
+        BridgeRequestScope restored = copy.getRequestScope(null, "portlet", "session", "/view.xhtml", "view");
+        assertNotNull(restored);
+        assertEquals(scope.getId(), restored.getId());
+        assertEquals("value", restored.get("attr"));
+    }
+
+    @Test
+    public void testSharedValueKeepsIdentity() throws Exception {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        SampleBean shared = new SampleBean("shared", 0);
+        manager.createRequestScope(null, "portlet", "session", "/first.xhtml", "view").put("bean", shared);
+        manager.createRequestScope(null, "portlet", "session", "/second.xhtml", "view").put("bean", shared);
+
+        BridgeRequestScopeManagerImpl copy = (BridgeRequestScopeManagerImpl) copy(manager);
+        Object first = copy.getRequestScope(null, "portlet", "session", "/first.xhtml", "view").get("bean");
+        Object second = copy.getRequestScope(null, "portlet", "session", "/second.xhtml", "view").get("bean");
+        assertEquals(shared, first);
+        assertSame(first, second);
+    }
+
+    /**
+     * Replicates a session holding {@link #SCOPES} scopes after a request that used one of them.
+     */
+    @Test
+    public void testCompactFormIsSmallerThanDefaultSerialization() throws Exception {
+        BridgeRequestScopeManagerImpl manager = newManager();
+        Map<String, LegacyScope> legacyScopes = new LinkedHashMap<String, LegacyScope>();
+        Map<BridgeRequestScopeKey, String> legacyIds = new ConcurrentHashMap<BridgeRequestScopeKey, String>();
+        String usedId = null;
+        for (int i = 0; i < SCOPES; i++) {
+            BridgeRequestScope scope = manager.createRequestScope(null, "portlet", "session", "/view" + i + ".xhtml",
+                "view");
+            scope.setExcludedEntries(EXCLUDED);
+            fill(scope, i);
+            usedId = scope.getId();
+
+            legacyScopes.put(scope.getId(), new LegacyScope(scope, EXCLUDED));
+            legacyIds.put(BridgeRequestScopeKey.forScope(scope), scope.getId());
+        }
+
+        manager.getRequestScopeById(null, usedId).put("counter", 1);
+        legacyScopes.get(usedId).put("counter", 1);
+
+        assertTrue(serializedSize(manager) < serializedSize(new Object[] { legacyScopes, legacyIds }));
+    }
+
+    @Test
+    public void testConcurrentRequestsAttachOnce() throws Exception {
+        BridgeRequestScopeManagerImpl manager = newManager(new AttachCountingStore());
+        final BridgeRequestScopeManagerImpl copy = (BridgeRequestScopeManagerImpl) copy(manager);
+        final PortletContext portletContext = newPortletContext();
+        AttachCountingStore.attached.set(0);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> requests = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread request = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    copy.ensureAttached(portletContext);
+                }
+            };
+            request.start();
+            requests.add(request);
+        }
+        start.countDown();
+        for (Thread request : requests) {
+            request.join();
+        }
+        assertEquals(1, AttachCountingStore.attached.get());
+    }
+
+    static void fill(Map<String, Object> scope, int i) {
+        scope.put("javax.portlet.faces.viewRoot", "/view" + i + ".xhtml");
+        scope.put("org.jboss.portletbridge.facesMessages", new ArrayList<String>(Arrays.asList("Saved", "Updated")));
+        scope.put("bean", new SampleBean("name" + i, i));
+        scope.put("javax.faces.ViewState", "-" + (1000000L + i) + ":-" + (2000000L + i));
+    }
+
+    private static BridgeRequestScopeImpl newScope(String sessionId, int i) {
+        BridgeRequestScopeImpl scope = new BridgeRequestScopeImpl("portlet", sessionId, "/view.xhtml", "view");
+        fill(scope, i);
+        return scope;
+    }
+
+    static BridgeRequestScopeManagerImpl newManager() {
+        return newManager(null);
+    }
+
+    private static BridgeRequestScopeManagerImpl newManager(BridgeRequestScopeStore store) {
+        final PortletContext portletContext = newPortletContext();
+        PortletConfig portletConfig = (PortletConfig) Proxy.newProxyInstance(PortletConfig.class.getClassLoader(),
+            new Class<?>[] { PortletConfig.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("getPortletContext".equals(method.getName())) {
+                        return portletContext;
+                    }
+                    return null;
+                }
+            });
+        BridgeConfigImpl bridgeConfig = new BridgeConfigImpl();
+        bridgeConfig.setPortletConfig(portletConfig);
+        return new BridgeRequestScopeManagerImpl(bridgeConfig, store);
+    }
+
+    private static PortletContext newPortletContext() {
+        return (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    // No init parameters or attributes
+                    return null;
+                }
+            });
+    }
+
+    private static Object copy(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    static int serializedSize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.size();
+    }
+
+    /**
+     * Counts how often it is attached, and attaches slowly so that concurrent attempts overlap.
+     */
+    static class AttachCountingStore extends BridgeRequestScopeMemoryStore {
+
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger attached = new AtomicInteger();
+
+        AttachCountingStore() {
+            super(new ConcurrentHashMap<String, BridgeRequestScope>());
+        }
+
+        @Override
+        public void attach(PortletContext portletContext, EvictionListener listener) {
+            attached.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.attach(portletContext, listener);
+        }
+    }
+
+    /**
+     * Same state as {@link BridgeRequestScopeImpl}, with default serialization.
+     */
+    static class LegacyScope extends ConcurrentHashMap<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String uniqRequestScopeId;
+        private final String portletName;
+        private final String sessionId;
+        private final String viewId;
+        private final String portletMode;
+        private final Vector<String> excludedEntries;
+        private final long creationTime;
+        private final long lastAccessedTime;
+
+        LegacyScope(BridgeRequestScope scope, List<String> excluded) {
+            super(16, .75f, 4);
+            this.uniqRequestScopeId = scope.getId();
+            this.portletName = scope.getPortletName();
+            this.sessionId = scope.getSessionId();
+            this.viewId = scope.getViewId();
+            this.portletMode = scope.getPortletMode();
+            this.excludedEntries = new Vector<String>(excluded);
+            this.creationTime = System.currentTimeMillis();
+            this.lastAccessedTime = this.creationTime;
+            putAll(scope);
+        }
+    }
+
+    static class SampleBean implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int value;
+
+        SampleBean(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof SampleBean && name.equals(((SampleBean) obj).name)
+                && value == ((SampleBean) obj).value;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() + value;
+        }
+    }
+}
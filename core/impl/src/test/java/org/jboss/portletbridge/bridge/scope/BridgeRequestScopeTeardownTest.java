@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.PortletBridgeConstants;
+import org.jboss.portletbridge.bridge.factory.BridgeFactoryFinder;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactory;
+import org.jboss.portletbridge.bridge.factory.BridgeLoggerFactoryImpl;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeRequestScopeTeardown} clears scopes in the background, and on the calling thread once its
+ * queue is full.
+ */
+public class BridgeRequestScopeTeardownTest {
+
+    private static final long TIMEOUT = 5000L;
+
+    @BeforeClass
+    public static void registerFactories() {
+        BridgeFactoryFinder.addFactoryDefinition(BridgeLoggerFactory.class, BridgeLoggerFactoryImpl.class.getName());
+    }
+
+    @Test
+    public void testEnabledByInitParameter() {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final Map<String, String> initParameters = new HashMap<String, String>();
+        PortletContext portletContext = (PortletContext) Proxy.newProxyInstance(
+            PortletContext.class.getClassLoader(), new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getAttribute".equals(name)) {
+                        return attributes.get(args[0]);
+                    } else if ("setAttribute".equals(name)) {
+                        attributes.put((String) args[0], args[1]);
+                    } else if ("getInitParameter".equals(name)) {
+                        return initParameters.get(args[0]);
+                    }
+                    return null;
+                }
+            });
+
+        assertNull(BridgeRequestScopeTeardown.getInstance(portletContext));
+
+        initParameters.put(PortletBridgeConstants.REQUEST_SCOPE_ASYNC_TEARDOWN, "true");
+        BridgeRequestScopeTeardown teardown = BridgeRequestScopeTeardown.getInstance(portletContext);
+        try {
+            assertNotNull(teardown);
+            assertSame(teardown, BridgeRequestScopeTeardown.getInstance(portletContext));
+        } finally {
+            teardown.shutdown();
+        }
+    }
+
+    @Test
+    public void testClearedOnCallingThreadWhenQueueIsFull() throws Exception {
+        BridgeRequestScopeTeardown teardown = new BridgeRequestScopeTeardown(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            RecordingScope blocking = new RecordingScope(release);
+            RecordingScope queued = new RecordingScope(null);
+            RecordingScope overflow = new RecordingScope(null);
+
+            teardown.teardown(blocking);
+            assertTrue(blocking.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            teardown.teardown(queued);
+            assertEquals(1, teardown.getQueuedTeardownCount());
+
+            teardown.teardown(overflow);
+            assertSame(Thread.currentThread(), overflow.clearedBy);
+            assertEquals(2, teardown.getAsyncTeardownCount());
+            assertEquals(1, teardown.getSyncTeardownCount());
+
+            release.countDown();
+            assertTrue(queued.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertTrue(Thread.currentThread() != blocking.clearedBy);
+        } finally {
+            release.countDown();
+            teardown.shutdown();
+        }
+    }
+
+    @Test
+    public void testClearedWithContextClassLoaderOfCaller() throws Exception {
+        BridgeRequestScopeTeardown teardown = new BridgeRequestScopeTeardown(1);
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        ClassLoader application = new URLClassLoader(new URL[0], previous);
+        try {
+            RecordingScope scope = new RecordingScope(null);
+            thread.setContextClassLoader(application);
+            teardown.teardown(scope);
+            thread.setContextClassLoader(previous);
+
+            assertTrue(scope.started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertTrue(thread != scope.clearedBy);
+            assertSame(application, scope.clearedWith);
+        } finally {
+            thread.setContextClassLoader(previous);
+            teardown.shutdown();
+        }
+    }
+
+    /**
+     * Records the thread clearing it, optionally blocking that thread until released.
+     */
+    private static class RecordingScope extends BridgeRequestScopeImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+        volatile Thread clearedBy;
+        volatile ClassLoader clearedWith;
+
+        RecordingScope(CountDownLatch release) {
+            super("portlet", "session", "/view.xhtml", "view");
+            this.release = release;
+        }
+
+        @Override
+        public void clear() {
+            clearedBy = Thread.currentThread();
+            clearedWith = clearedBy.getContextClassLoader();
+            started.countDown();
+            if (null != release) {
+                try {
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.clear();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.bridge.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.portlet.PortletContext;
+import javax.portlet.faces.annotation.ExcludeFromManagedRequestScope;
+
+import org.jboss.portletbridge.context.AbstractExternalContext;
+import org.junit.Test;
+
+/**
+ * Verifies that {@link ExcludedAttributeMatcher} excludes the same attributes as a plain scan of the excluded names, as
+ * JSR-329 5.1.2.1 describes them.
+ */
+public class ExcludedAttributeMatcherTest {
+
+    private static final List<String> EXCLUDES = Arrays.asList("com.foo.*", "com.foo.bar.*", "org.*", "exact.name",
+        "x.y", "*");
+
+    private static final List<String> NAMES = Arrays.asList("com.foo.a", "com.foo.bar.b", "com.foo.bar.baz.c",
+        "com.foo", "com.foo.", "com.foobar.a", "org.a", "org.a.b", "org", "exact.name", "exact.name.sub", "exact",
+        "x.y", "x.y.z", "nodot", "", ".", "a.", ".a");
+
+    @Test
+    public void matchesLikeNamespaceCheck() {
+        ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(EXCLUDES);
+        for (String name : NAMES) {
+            assertEquals(name, isExcludedNamespace(name, EXCLUDES), matcher.matches(name));
+        }
+    }
+
+    @Test
+    public void namespaceExcludesOnlyItsOwnAttributes() {
+        ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(Arrays.asList("com.foo.*"));
+
+        assertTrue(matcher.matches("com.foo.a"));
+        assertFalse(matcher.matches("com.foo.bar.b"));
+        assertFalse(matcher.matches("com.foobar"));
+        assertFalse(matcher.matches("com.foo"));
+    }
+
+    @Test
+    public void wildcardExcludesNamesWithoutDot() {
+        ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(Arrays.asList("*"));
+
+        assertTrue(matcher.matches("nodot"));
+        assertTrue(matcher.matches(""));
+        assertFalse(matcher.matches("a.b"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void combinedMatcherKeepsBothExcludes() {
+        ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(Arrays.asList("com.foo.*"));
+        ExcludedAttributeMatcher combined = matcher.with(Arrays.asList("preFaces"));
+
+        assertTrue(combined.matches("com.foo.a"));
+        assertTrue(combined.matches("preFaces"));
+        assertFalse(matcher.matches("preFaces"));
+    }
+
+    @Test
+    public void matchesLikeNamespaceCheckOverGeneratedNames() {
+        String[] fragments = { "a", "b", "ab", ".", "*", "" };
+        Random random = new Random(329);
+
+        for (int i = 0; i < 2000; i++) {
+            List<String> excludes = new ArrayList<String>();
+            for (int j = random.nextInt(4); j > 0; j--) {
+                excludes.add(generate(random, fragments));
+            }
+            ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(excludes);
+
+            for (int j = 0; j < 10; j++) {
+                String name = generate(random, fragments).replace("*", "");
+                assertEquals(excludes + " " + name, isExcludedNamespace(name, excludes),
+                    matcher.matches(name));
+            }
+        }
+    }
+
+    @Test
+    public void excludedByDefinitionLikeNamespaceCheck() {
+        List<String> namespaces = Arrays.asList("javax.portlet.", "javax.portlet.faces.", "javax.faces.",
+            "javax.servlet.", "javax.servlet.include.", AbstractExternalContext.INITIAL_REQUEST_ATTRIBUTES_NAMES);
+        List<String> names = new ArrayList<String>(NAMES);
+        names.addAll(Arrays.asList("javax.portlet.a", "javax.portlet.faces.a", "javax.portlet.faces.a.b",
+            "javax.faces.ViewState", "javax.faces.a.b", "javax.servlet.include.request_uri",
+            "javax.servlet.forward.request_uri", "javax.portletx",
+            AbstractExternalContext.INITIAL_REQUEST_ATTRIBUTES_NAMES + "a"));
+
+        for (String name : names) {
+            boolean expected = false;
+            for (String namespace : namespaces) {
+                expected |= isNamespaceMatch(name, namespace);
+            }
+            assertEquals(name, expected, ExcludedAttributeMatcher.isExcludedByDefinition(name));
+        }
+    }
+
+    @Test
+    public void excludedByAnnotationOrType() {
+        PortletContext portletContext = (PortletContext) Proxy.newProxyInstance(PortletContext.class.getClassLoader(),
+            new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return null;
+                }
+            });
+
+        ExcludedAttributeMatcher matcher = ExcludedAttributeMatcher.compile(null);
+        assertTrue(matcher.isExcluded("bean", portletContext));
+        assertTrue(matcher.isExcluded("bean", new ExcludedBean()));
+        assertFalse(matcher.isExcluded("bean", new Object()));
+        assertFalse(matcher.isExcluded("bean", null));
+
+        assertTrue(ExcludedAttributeMatcher.isExcludedType(portletContext.getClass()));
+        assertTrue(ExcludedAttributeMatcher.isExcludedType(ExcludedBean.class));
+        assertFalse(ExcludedAttributeMatcher.isExcludedType(Object.class));
+    }
+
+    /**
+     * Reference check, scanning the excluded names for each attribute.
+     */
+    private static boolean isExcludedNamespace(String key, List<String> localExcludes) {
+        if (localExcludes.contains(key)) {
+            return true;
+        }
+        for (String exclude : localExcludes) {
+            if (exclude.endsWith("*") && isNamespaceMatch(key, exclude.substring(0, exclude.length() - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNamespaceMatch(String key, String namespace) {
+        if (null != key && null != namespace && key.startsWith(namespace)) {
+            return key.substring(0, key.lastIndexOf('.') + 1).equals(namespace);
+        }
+        return false;
+    }
+
+    private static String generate(Random random, String[] fragments) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = random.nextInt(5); i > 0; i--) {
+            builder.append(fragments[random.nextInt(fragments.length)]);
+        }
+        return builder.toString();
+    }
+
+    @ExcludeFromManagedRequestScope
+    public static class ExcludedBean {
+    }
+}
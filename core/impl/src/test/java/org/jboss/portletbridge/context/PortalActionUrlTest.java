@@ -21,6 +21,11 @@
  */
 package org.jboss.portletbridge.context;
 
+import java.net.MalformedURLException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import junit.framework.TestCase;
 
 /**
@@ -138,4 +143,95 @@ public class PortalActionUrlTest extends TestCase {
         assertEquals("ef", url.getParameter("cd"));
         assertNull(url.getParameter("xxx"));
     }
+
+    public void testPortWithoutHost() throws Exception {
+        PortalActionURL url = new PortalActionURL("localhost:8080/some/path");
+        assertEquals("localhost:", url.getProtocol());
+        assertNull(url.getHost());
+        assertEquals(-1, url.getPort());
+        assertEquals("8080/some/path", url.getPath());
+    }
+
+    public void testSingleCharacterHost() throws Exception {
+        PortalActionURL url = new PortalActionURL("//a/some/path");
+        assertNull(url.getHost());
+        assertEquals("//a/some/path", url.getPath());
+
+        url = new PortalActionURL("//a#/some/path");
+        assertEquals("//a#", url.getHost());
+        assertEquals("/some/path", url.getPath());
+    }
+
+    public void testEmptyQueryString() throws Exception {
+        PortalActionURL url = new PortalActionURL("/some/path/index.jsf?");
+        assertEquals("/some/path/index.jsf", url.getPath());
+        assertNull(url.getQueryString());
+        assertEquals("/some/path/index.jsf", url.toString());
+    }
+
+    public void testLineTerminatorInQueryString() throws Exception {
+        try {
+            new PortalActionURL("/some/path/index.jsf?a=b\ncd=ef");
+            fail("Expected MalformedURLException");
+        } catch (MalformedURLException e) {
+            // expected
+        }
+        PortalActionURL url = new PortalActionURL("/some\n/path?a=b");
+        assertEquals("/some\n/path", url.getPath());
+    }
+
+    public void testSetComponents() throws Exception {
+        PortalActionURL url = new PortalActionURL("/some/path/index.jsf?a=b");
+        url.setProtocol("http:");
+        url.setHost("//foo.bar");
+        url.setPort(8080);
+        url.setPath("/other.jsf");
+        url.addParameter("cd", "ef");
+        assertEquals("http://foo.bar:8080/other.jsf?a=b&cd=ef", url.toString());
+    }
+
+    public void testInContext() throws Exception {
+        assertTrue(new PortalActionURL("/ctx/page.jsf").isInContext("/ctx"));
+        assertTrue(new PortalActionURL("page.jsf").isInContext("/ctx"));
+        assertFalse(new PortalActionURL("/ctxother/page.jsf").isInContext("/ctx"));
+        assertFalse(new PortalActionURL("http://foo.bar/ctx/page.jsf").isInContext("/ctx"));
+    }
+
+    /**
+     * Compares the parser with the regular expression it replaced, over a corpus of generated URLs.
+     */
+    public void testFuzzCorpus() throws Exception {
+        Pattern urlPattern = Pattern
+            .compile("^(\\w*:)?(//[\\w\\._-]+[^/:?])?((?:\\:)(\\d+))?([^?]*)?((?:\\?)(.*))?$");
+        String[] fragments = { "http", "ftp", ":", "//", "/", "?", "&", "&amp;", "=", "a", "Z", "9", "90", "_", "-",
+            ".", "foo.bar", "www", "#", "@", " ", "%40", "+", ";jsessionid=1", "\n", "\r", "\u2028", "\u00e9" };
+        Random random = new Random(329);
+
+        for (int i = 0; i < 50000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int count = random.nextInt(8);
+            for (int j = 0; j < count; j++) {
+                builder.append(fragments[random.nextInt(fragments.length)]);
+            }
+            String source = builder.toString();
+            boolean escape = random.nextBoolean();
+
+            Matcher matcher = urlPattern.matcher(source);
+            PortalActionURL url;
+            try {
+                url = new PortalActionURL(source, escape);
+            } catch (MalformedURLException e) {
+                assertFalse("Rejected " + source, matcher.matches());
+                continue;
+            }
+            assertTrue("Accepted " + source, matcher.matches());
+
+            assertEquals(source, matcher.group(1), url.getProtocol());
+            assertEquals(source, matcher.group(2), url.getHost());
+            int port = null != matcher.group(4) ? Integer.parseInt(matcher.group(4)) : -1;
+            assertEquals(source, port, url.getPort());
+            assertEquals(source, matcher.group(5), url.getPath());
+            assertEquals(source, new PortalUrlQueryString(matcher.group(7), escape).toString(), url.getQueryString());
+        }
+    }
 }
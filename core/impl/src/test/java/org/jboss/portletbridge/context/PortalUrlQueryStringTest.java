@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.context;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Verifies the lazily parsed {@link PortalUrlQueryString} against the eager split and decode it replaced.
+ */
+public class PortalUrlQueryStringTest {
+
+    @Test
+    public void parsesOnFirstAccess() {
+        PortalUrlQueryString query = new PortalUrlQueryString("a=1&amp;b=x%20y&a=2&c&d=");
+
+        assertEquals("1", query.getParameter("a"));
+        assertEquals("x y", query.getParameter("b"));
+        assertTrue(query.hasParameter("c"));
+        assertEquals("", query.getParameter("d"));
+        assertEquals(4, query.parametersSize());
+        assertArrayEquals(new String[] { "1", "2" }, query.getParameters().get("a"));
+        assertEquals("a=1&a=2&b=x y&c&d=", query.toString());
+    }
+
+    @Test
+    public void toStringCachedUntilModified() {
+        PortalUrlQueryString query = new PortalUrlQueryString("a=1&b=2");
+        String string = query.toString();
+
+        assertSame(string, query.toString());
+
+        query.getParameters().put("c", new String[] { "3" });
+        assertEquals("a=1&b=2&c=3", query.toString());
+
+        for (Map.Entry<String, String[]> entry : query.getParameters().entrySet()) {
+            if ("a".equals(entry.getKey())) {
+                entry.setValue(new String[] { "4" });
+            }
+        }
+        assertEquals("a=4&b=2&c=3", query.toString());
+
+        query.removeParameter("b");
+        assertEquals("a=4&c=3", query.toString());
+
+        query.getParameters().clear();
+        assertNull(query.toString());
+    }
+
+    @Test
+    public void sharedParametersCopiedOnWrite() {
+        Map<String, String[]> source = new LinkedHashMap<String, String[]>();
+        source.put("a", new String[] { "1" });
+        PortalUrlQueryString query = new PortalUrlQueryString(null);
+        query.setParameters(source);
+
+        assertEquals("a=1", query.toString());
+        assertNull(query.removeParameter("b"));
+
+        query.addParameter("a", "2");
+        query.setParameter("b", "3");
+
+        assertEquals("a=1&a=2&b=3", query.toString());
+        assertEquals(1, source.size());
+        assertArrayEquals(new String[] { "1" }, source.get("a"));
+    }
+
+    @Test
+    public void keepsInsertionOrderBeyondInitialCapacity() {
+        PortalUrlQueryString query = new PortalUrlQueryString(null);
+        Map<String, String[]> expected = new LinkedHashMap<String, String[]>();
+        for (int i = 0; i < 40; i++) {
+            query.setParameter("p" + i, String.valueOf(i));
+            expected.put("p" + i, new String[] { String.valueOf(i) });
+        }
+        for (int i = 0; i < 40; i += 3) {
+            query.removeParameter("p" + i);
+            expected.remove("p" + i);
+        }
+        for (Iterator<String> it = query.getParameters().keySet().iterator(); it.hasNext();) {
+            if (it.next().endsWith("1")) {
+                it.remove();
+            }
+        }
+        for (Iterator<String> it = expected.keySet().iterator(); it.hasNext();) {
+            if (it.next().endsWith("1")) {
+                it.remove();
+            }
+        }
+
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(query.getParameters().keySet()));
+        for (String name : expected.keySet()) {
+            assertEquals(expected.get(name)[0], query.getParameter(name));
+        }
+        assertFalse(query.hasParameter("p0"));
+        assertEquals(new HashMap<String, String[]>(query.getParameters()).size(), expected.size());
+    }
+
+    /**
+     * Compares parsing with the split and decode it replaced, over a corpus of generated query strings.
+     */
+    @Test
+    public void fuzzCorpus() throws Exception {
+        String[] fragments = { "&", "&amp;", "amp;", "=", "a", "b", "Z", "9", "%20", "%C3%A9", "+", " ", "/", ";", "." };
+        Random random = new Random(290);
+
+        for (int i = 0; i < 50000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int count = random.nextInt(10);
+            for (int j = 0; j < count; j++) {
+                builder.append(fragments[random.nextInt(fragments.length)]);
+            }
+            String source = builder.toString();
+
+            Map<String, List<String>> expected = legacyParse(source);
+            PortalUrlQueryString query = new PortalUrlQueryString(source);
+
+            assertEquals(source, expected.size(), query.parametersSize());
+            assertEquals(source, new ArrayList<String>(expected.keySet()),
+                new ArrayList<String>(query.getParameters().keySet()));
+            StringBuilder expectedString = new StringBuilder();
+            boolean first = true;
+            for (Map.Entry<String, List<String>> entry : expected.entrySet()) {
+                String[] values = query.getParameters().get(entry.getKey());
+                assertEquals(source, entry.getValue().size(), values.length);
+                for (int j = 0; j < values.length; j++) {
+                    String value = entry.getValue().get(j);
+                    assertEquals(source, null == value ? "" : value, values[j]);
+                    expectedString.append(first ? "" : "&").append(entry.getKey());
+                    first = false;
+                    if (null != value) {
+                        expectedString.append('=').append(value);
+                    }
+                }
+            }
+            assertEquals(source, expected.isEmpty() ? null : expectedString.toString(), query.toString());
+        }
+    }
+
+    /**
+     * Parameters as previously parsed, with null for a parameter without a value.
+     */
+    private static Map<String, List<String>> legacyParse(String queryString) throws Exception {
+        Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+        if (queryString.length() > 0) {
+            for (String par : queryString.replace("&amp;", "&").split("&")) {
+                int eqIndex = par.indexOf('=');
+                String name = eqIndex >= 0 ? URLDecoder.decode(par.substring(0, eqIndex), "UTF-8") : par;
+                String value = eqIndex >= 0 ? URLDecoder.decode(par.substring(eqIndex + 1), "UTF-8") : null;
+                List<String> values = parameters.get(name);
+                if (null == values) {
+                    values = new ArrayList<String>();
+                    parameters.put(name, values);
+                }
+                values.add(value);
+            }
+        }
+        return parameters;
+    }
+}
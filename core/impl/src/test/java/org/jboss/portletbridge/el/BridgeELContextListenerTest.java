@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.el;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.el.ELContextListener;
+import javax.faces.application.Application;
+import javax.faces.application.ApplicationWrapper;
+
+import org.junit.Test;
+
+/**
+ * Verifies that {@link BridgeELContextListener} is only registered once with an {@link Application}.
+ */
+public class BridgeELContextListenerTest {
+
+    @Test
+    public void registeredOnce() {
+        ListenerApplication application = new ListenerApplication();
+
+        BridgeELContextListener.register(application);
+        BridgeELContextListener.register(application);
+
+        assertEquals(1, application.listeners.size());
+    }
+
+    @Test
+    public void registeredOncePerApplication() {
+        ListenerApplication first = new ListenerApplication();
+        ListenerApplication second = new ListenerApplication();
+
+        BridgeELContextListener.register(first);
+        BridgeELContextListener.register(second);
+
+        assertEquals(1, first.listeners.size());
+        assertEquals(1, second.listeners.size());
+        assertEquals(first.listeners.get(0), second.listeners.get(0));
+    }
+
+    private static class ListenerApplication extends ApplicationWrapper {
+        final List<ELContextListener> listeners = new ArrayList<ELContextListener>();
+
+        @Override
+        public Application getWrapped() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addELContextListener(ELContextListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public ELContextListener[] getELContextListeners() {
+            return listeners.toArray(new ELContextListener[listeners.size()]);
+        }
+    }
+}
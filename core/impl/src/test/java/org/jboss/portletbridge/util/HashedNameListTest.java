@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verifies {@link HashedNameList} behaves as an immutable {@link List}, and that its lookups match those of the
+ * {@link ArrayList} it replaces for the snapshot of request attribute names.
+ */
+public class HashedNameListTest {
+
+    @Test
+    public void behavesAsList() {
+        List<String> source = Arrays.asList("a", "b", null, "c", "b");
+        HashedNameList names = HashedNameList.copyOf(source);
+
+        assertEquals(source, names);
+        assertEquals(source.hashCode(), names.hashCode());
+        assertEquals(1, names.indexOf("b"));
+        assertEquals(2, names.indexOf(null));
+        assertEquals(-1, names.indexOf("d"));
+        assertEquals(-1, names.indexOf(Integer.valueOf(1)));
+        assertTrue(names.contains("c"));
+        assertFalse(names.contains("d"));
+    }
+
+    @Test
+    public void snapshotOfEnumeration() {
+        List<String> source = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            source.add("attribute" + i);
+        }
+        HashedNameList names = HashedNameList.of(Collections.enumeration(source));
+
+        assertEquals(source, names);
+        for (String name : source) {
+            assertTrue(names.contains(name));
+        }
+        assertFalse(names.contains("attribute100"));
+    }
+
+    @Test
+    public void sharedWithoutCopy() {
+        HashedNameList names = HashedNameList.copyOf(Arrays.asList("a"));
+
+        assertSame(names, HashedNameList.copyOf(names));
+        assertSame(HashedNameList.empty(), HashedNameList.copyOf(null));
+        assertSame(HashedNameList.empty(), HashedNameList.of(Collections.enumeration(Collections.<String> emptyList())));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable() {
+        HashedNameList.copyOf(Arrays.asList("a")).add("b");
+    }
+
+    @Test
+    public void lookupsMatchArrayList() {
+        List<String> source = new ArrayList<String>();
+        for (int i = 0; i < 64; i++) {
+            source.add("org.jboss.portletbridge.attribute" + i);
+        }
+        List<String> lookups = new ArrayList<String>(source);
+        for (int i = 0; i < 64; i++) {
+            lookups.add("com.example.bean" + i);
+        }
+
+        List<String> list = new ArrayList<String>(source);
+        HashedNameList hashed = HashedNameList.copyOf(source);
+        for (String name : lookups) {
+            assertEquals(name, list.contains(name), hashed.contains(name));
+            assertEquals(name, list.indexOf(name), hashed.indexOf(name));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the heap retained per bridge request scope by a view kept as its component tree, as state saved by
+ * {@link ViewStateWrapper} and as compressed state, with the cost of restoring the view from that state.
+ * <p>
+ * Not run by surefire. Run with <code>mvn test -Dtest=ViewStateWrapperBenchmark</code>.
+ * </p>
+ */
+public class ViewStateWrapperBenchmark {
+
+    private static final int RETAINED_SCOPES = 200;
+
+    private ViewStateWrapperTest.StubFacesContext facesContext;
+
+    @Before
+    public void setUp() {
+        facesContext = new ViewStateWrapperTest.StubFacesContext();
+    }
+
+    @After
+    public void tearDown() {
+        facesContext.release();
+    }
+
+    @Test
+    public void heapPerScopeAgainstRestoreCost() throws Exception {
+        long treeBytes = retainedBytes(new ViewFactory() {
+            public Object create() {
+                return ViewStateWrapperTest.buildView();
+            }
+        });
+        long stateBytes = retainedBytes(new ViewFactory() {
+            public Object create() throws Exception {
+                return ViewStateWrapper.saveView(facesContext, ViewStateWrapperTest.buildView(), false);
+            }
+        });
+        long compressedBytes = retainedBytes(new ViewFactory() {
+            public Object create() throws Exception {
+                return ViewStateWrapper.saveView(facesContext, ViewStateWrapperTest.buildView(), true);
+            }
+        });
+
+        long stateNanos = restoreNanos(ViewStateWrapper.saveView(facesContext, ViewStateWrapperTest.buildView(),
+            false));
+        long compressedNanos = restoreNanos(ViewStateWrapper.saveView(facesContext,
+            ViewStateWrapperTest.buildView(), true));
+
+        System.out.println("ViewStateWrapper, view of " + (ViewStateWrapperTest.ROWS * 2 + 3)
+            + " components, heap per retained scope: component tree=" + treeBytes + " bytes, state=" + stateBytes
+            + " bytes, compressed state=" + compressedBytes + " bytes; restore: component tree=0us, state="
+            + stateNanos / 1000 + "us, compressed state=" + compressedNanos / 1000 + "us");
+    }
+
+    private long retainedBytes(ViewFactory factory) throws Exception {
+        // Warm up before measuring
+        for (int i = 0; i < 50; i++) {
+            factory.create();
+        }
+        List<Object> retained = new ArrayList<Object>(RETAINED_SCOPES);
+        long before = usedMemory();
+        for (int i = 0; i < RETAINED_SCOPES; i++) {
+            retained.add(factory.create());
+        }
+        long after = usedMemory();
+        // Keep the views reachable until measured
+        if (retained.size() != RETAINED_SCOPES) {
+            throw new IllegalStateException();
+        }
+        return Math.max(0, after - before) / RETAINED_SCOPES;
+    }
+
+    private long restoreNanos(ViewStateWrapper saved) {
+        // Warm up before measuring
+        for (int i = 0; i < 50; i++) {
+            saved.restoreView(facesContext);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RETAINED_SCOPES; i++) {
+            saved.restoreView(facesContext);
+        }
+        return (System.nanoTime() - start) / RETAINED_SCOPES;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private interface ViewFactory {
+        Object create() throws Exception;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2013, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.portletbridge.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.el.ELContext;
+import javax.faces.application.Application;
+import javax.faces.application.ApplicationWrapper;
+import javax.faces.application.FacesMessage;
+import javax.faces.application.FacesMessage.Severity;
+import javax.faces.component.UIComponent;
+import javax.faces.component.UIViewRoot;
+import javax.faces.component.html.HtmlForm;
+import javax.faces.component.html.HtmlInputText;
+import javax.faces.component.html.HtmlOutputText;
+import javax.faces.component.html.HtmlPanelGrid;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.faces.context.ResponseStream;
+import javax.faces.context.ResponseWriter;
+import javax.faces.event.SystemEvent;
+import javax.faces.render.RenderKit;
+import javax.portlet.PortletContext;
+
+import org.jboss.portletbridge.context.InitExternalContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Verifies that a view saved by {@link ViewStateWrapper} is rebuilt with the same structure and state.
+ */
+public class ViewStateWrapperTest {
+
+    static final int ROWS = 50;
+
+    private StubFacesContext facesContext;
+
+    @Before
+    public void setUp() {
+        facesContext = new StubFacesContext();
+    }
+
+    @After
+    public void tearDown() {
+        facesContext.release();
+    }
+
+    @Test
+    public void testRestoredViewMatchesSavedView() throws Exception {
+        assertRestored(ViewStateWrapper.saveView(facesContext, buildView(), false));
+    }
+
+    @Test
+    public void testRestoredCompressedViewMatchesSavedView() throws Exception {
+        ViewStateWrapper saved = ViewStateWrapper.saveView(facesContext, buildView(), true);
+        assertTrue(saved.getCompressedSize() > 0);
+        assertRestored(saved);
+    }
+
+    @Test
+    public void testSavingLeavesInitialStateMarked() throws Exception {
+        UIViewRoot viewRoot = buildView();
+        markInitialState(viewRoot);
+
+        ViewStateWrapper.saveView(facesContext, viewRoot, true);
+
+        assertInitialStateMarked(viewRoot);
+    }
+
+    @Test
+    public void testFailedSaveLeavesInitialStateMarked() throws Exception {
+        UIViewRoot viewRoot = buildView();
+        ((HtmlInputText) viewRoot.findComponent("form:input0")).setValue(new NotSerializableValue());
+        markInitialState(viewRoot);
+
+        try {
+            ViewStateWrapper.saveView(facesContext, viewRoot, true);
+            fail("Saving a view holding a value that is not serializable should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertInitialStateMarked(viewRoot);
+    }
+
+    @Test
+    public void testSavedViewIsRestoredRepeatedly() throws Exception {
+        ViewStateWrapper saved = ViewStateWrapper.saveView(facesContext, buildView(), true);
+        UIViewRoot first = assertRestored(saved);
+        UIViewRoot second = assertRestored(saved);
+        assertNotSame(first, second);
+    }
+
+    private UIViewRoot assertRestored(ViewStateWrapper saved) {
+        UIViewRoot viewRoot = saved.restoreView(facesContext);
+
+        assertEquals("/test.xhtml", viewRoot.getViewId());
+        assertEquals(1, viewRoot.getChildCount());
+        UIComponent form = viewRoot.getChildren().get(0);
+        assertEquals("form", form.getId());
+        HtmlPanelGrid grid = (HtmlPanelGrid) form.getChildren().get(0);
+        assertEquals(2, grid.getColumns());
+        assertEquals(ROWS * 2, grid.getChildCount());
+        assertNotNull(grid.getFacet("header"));
+        assertEquals("Header", ((HtmlOutputText) grid.getFacet("header")).getValue());
+
+        HtmlInputText input = (HtmlInputText) grid.getChildren().get(1);
+        assertEquals("input0", input.getId());
+        assertEquals("value0", input.getValue());
+        assertEquals(20, input.getSize());
+        return viewRoot;
+    }
+
+    private static void markInitialState(UIComponent component) {
+        component.markInitialState();
+        Iterator<UIComponent> kids = component.getFacetsAndChildren();
+        while (kids.hasNext()) {
+            markInitialState(kids.next());
+        }
+    }
+
+    private static void assertInitialStateMarked(UIComponent component) {
+        assertTrue(component.getId() + " should still be marked", component.initialStateMarked());
+        Iterator<UIComponent> kids = component.getFacetsAndChildren();
+        while (kids.hasNext()) {
+            assertInitialStateMarked(kids.next());
+        }
+    }
+
+    static UIViewRoot buildView() {
+        UIViewRoot viewRoot = new UIViewRoot();
+        viewRoot.setViewId("/test.xhtml");
+
+        HtmlForm form = new HtmlForm();
+        form.setId("form");
+        viewRoot.getChildren().add(form);
+
+        HtmlPanelGrid grid = new HtmlPanelGrid();
+        grid.setId("grid");
+        grid.setColumns(2);
+        form.getChildren().add(grid);
+
+        HtmlOutputText header = new HtmlOutputText();
+        header.setId("header");
+        header.setValue("Header");
+        grid.getFacets().put("header", header);
+
+        for (int i = 0; i < ROWS; i++) {
+            HtmlOutputText label = new HtmlOutputText();
+            label.setId("label" + i);
+            label.setValue("Label " + i);
+            grid.getChildren().add(label);
+
+            HtmlInputText input = new HtmlInputText();
+            input.setId("input" + i);
+            input.setValue("value" + i);
+            input.setSize(20);
+            grid.getChildren().add(input);
+        }
+        return viewRoot;
+    }
+
+    /**
+     * Declared serializable, so that JSF keeps it in the saved state, but holding a field that is not.
+     */
+    private static final class NotSerializableValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("unused")
+        private final Object held = new Object();
+    }
+
+    /**
+     * Just enough of a FacesContext for components to save and restore their state.
+     */
+    static final class StubFacesContext extends FacesContext {
+
+        private final Map<Object, Object> attributes = new HashMap<Object, Object>();
+        private final ExternalContext externalContext = new InitExternalContext((PortletContext) Proxy.newProxyInstance(
+            PortletContext.class.getClassLoader(), new Class<?>[] { PortletContext.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    // No init parameters or attributes
+                    return null;
+                }
+            })) {
+            private final Map<String, Object> sessionMap = new HashMap<String, Object>();
+
+            @Override
+            public Map<String, Object> getSessionMap() {
+                return sessionMap;
+            }
+        };
+        private final Application application = new ApplicationWrapper() {
+            @Override
+            public Application getWrapped() {
+                return null;
+            }
+
+            @Override
+            public void publishEvent(FacesContext context, Class<? extends SystemEvent> systemEventClass,
+                Object source) {
+                // No listeners
+            }
+        };
+        private UIViewRoot viewRoot;
+        private boolean processingEvents = true;
+
+        StubFacesContext() {
+            setCurrentInstance(this);
+        }
+
+        @Override
+        public Map<Object, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public boolean isProcessingEvents() {
+            return processingEvents;
+        }
+
+        @Override
+        public void setProcessingEvents(boolean processingEvents) {
+            this.processingEvents = processingEvents;
+        }
+
+        @Override
+        public Application getApplication() {
+            return application;
+        }
+
+        @Override
+        public Iterator<String> getClientIdsWithMessages() {
+            return null;
+        }
+
+        @Override
+        public ELContext getELContext() {
+            return null;
+        }
+
+        @Override
+        public ExternalContext getExternalContext() {
+            return externalContext;
+        }
+
+        @Override
+        public Severity getMaximumSeverity() {
+            return null;
+        }
+
+        @Override
+        public Iterator<FacesMessage> getMessages() {
+            return null;
+        }
+
+        @Override
+        public Iterator<FacesMessage> getMessages(String clientId) {
+            return null;
+        }
+
+        @Override
+        public RenderKit getRenderKit() {
+            return null;
+        }
+
+        @Override
+        public boolean getRenderResponse() {
+            return false;
+        }
+
+        @Override
+        public boolean getResponseComplete() {
+            return false;
+        }
+
+        @Override
+        public ResponseStream getResponseStream() {
+            return null;
+        }
+
+        @Override
+        public void setResponseStream(ResponseStream responseStream) {
+        }
+
+        @Override
+        public ResponseWriter getResponseWriter() {
+            return null;
+        }
+
+        @Override
+        public void setResponseWriter(ResponseWriter responseWriter) {
+        }
+
+        @Override
+        public UIViewRoot getViewRoot() {
+            return viewRoot;
+        }
+
+        @Override
+        public void setViewRoot(UIViewRoot root) {
+            viewRoot = root;
+        }
+
+        @Override
+        public void addMessage(String clientId, FacesMessage message) {
+        }
+
+        @Override
+        public void release() {
+            setCurrentInstance(null);
+        }
+
+        @Override
+        public void renderResponse() {
+        }
+
+        @Override
+        public void responseComplete() {
+        }
+    }
+}